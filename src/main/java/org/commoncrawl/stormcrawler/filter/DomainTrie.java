@@ -0,0 +1,586 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commoncrawl.stormcrawler.filter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.commoncrawl.stormcrawler.filter.FastURLFilter.DenyAllRule;
+import org.commoncrawl.stormcrawler.filter.FastURLFilter.DenyPathQueryRule;
+import org.commoncrawl.stormcrawler.filter.FastURLFilter.DenyPathRule;
+import org.commoncrawl.stormcrawler.filter.FastURLFilter.Rule;
+
+/**
+ * Trie over the reversed labels of host and domain names (<code>com -&gt; example -&gt; www</code>)
+ * holding the host and domain rules. The root node holds the global rules (&quot;<code>Domain .
+ * </code>&quot;).
+ *
+ * <p>Nodes are identified by integers and stored in parallel arrays, the edges of all nodes are
+ * kept in a single open-addressing hash table keyed by parent node and label. A host name is looked
+ * up in place, label by label from the right, without creating any objects: {@link #find(String)}
+ * returns the node of the longest suffix of the host name (consisting of complete labels) present
+ * in the trie, all shorter suffixes are reached by following {@link #parent(int)} links.
+ *
+ * <p>The trie is either built on the heap (see {@link #builder()}) or memory-mapped read-only from
+ * a binary index file written by {@link Builder#writeIndex(OutputStream)} (see {@link #map(Path)}).
+ * A mapped trie is shared via the page cache by all processes reading the same file, the rules of a
+ * host or domain are compiled lazily when they are needed first. Index files are limited to 2 GiB.
+ *
+ * <p>The trie is immutable once built and can be shared between threads.
+ */
+final class DomainTrie {
+
+    static final int ROOT = 0;
+
+    /** magic number of binary index files: "FUFI" */
+    static final int INDEX_MAGIC = 0x46554649;
+
+    static final int INDEX_VERSION = 1;
+
+    private static final byte TYPE_RULE = 0;
+    private static final byte TYPE_DENY_ALL = 1;
+    private static final byte TYPE_DENY_PATH = 2;
+    private static final byte TYPE_DENY_PATH_QUERY = 3;
+
+    static final DomainTrie EMPTY = builder().build();
+
+    /** parent node, -1 for the root */
+    private final IntBuffer parent;
+
+    /** offset of the node's label in {@link #labels} */
+    private final IntBuffer labelStart;
+
+    private final IntBuffer labelLength;
+
+    /** length of the host or domain name represented by a node */
+    private final IntBuffer nameLength;
+
+    private final CharBuffer labels;
+
+    /** rule group of host resp. domain rules per node, -1 if there are none */
+    private final IntBuffer hostGroup;
+
+    private final IntBuffer domainGroup;
+
+    /** hash table of edges: child node + 1, 0 marks an empty slot */
+    private final IntBuffer edges;
+
+    private final int mask;
+
+    /** offsets of serialized rule groups in {@link #ruleData}, null for tries built on the heap */
+    private final IntBuffer groupOffsets;
+
+    private final ByteBuffer ruleData;
+
+    /** compiled rule groups, filled lazily for mapped tries */
+    private final AtomicReferenceArray<RuleGroup> groups;
+
+    private final int numHostRules;
+    private final int numDomainRules;
+
+    private DomainTrie(
+            IntBuffer parent,
+            IntBuffer labelStart,
+            IntBuffer labelLength,
+            IntBuffer nameLength,
+            CharBuffer labels,
+            IntBuffer hostGroup,
+            IntBuffer domainGroup,
+            IntBuffer edges,
+            IntBuffer groupOffsets,
+            ByteBuffer ruleData,
+            AtomicReferenceArray<RuleGroup> groups,
+            int numHostRules,
+            int numDomainRules) {
+        this.parent = parent;
+        this.labelStart = labelStart;
+        this.labelLength = labelLength;
+        this.nameLength = nameLength;
+        this.labels = labels;
+        this.hostGroup = hostGroup;
+        this.domainGroup = domainGroup;
+        this.edges = edges;
+        this.mask = edges.capacity() - 1;
+        this.groupOffsets = groupOffsets;
+        this.ruleData = ruleData;
+        this.groups = groups;
+        this.numHostRules = numHostRules;
+        this.numDomainRules = numDomainRules;
+    }
+
+    /**
+     * @return node of the longest suffix of the host name (consisting of complete labels) for which
+     *     rules are defined or which is part of a longer name with rules, {@link #ROOT} if there is
+     *     none
+     */
+    int find(String hostname) {
+        int node = ROOT;
+        int end = hostname.length();
+        while (end > 0) {
+            int start = hostname.lastIndexOf('.', end - 1) + 1;
+            int child = child(node, hostname, start, end - start);
+            if (child == -1) {
+                break;
+            }
+            node = child;
+            end = start - 1;
+        }
+        return node;
+    }
+
+    private int child(int node, String hostname, int start, int length) {
+        int h = hash(node, hostname, start, length) & mask;
+        int slot;
+        while ((slot = edges.get(h)) != 0) {
+            int child = slot - 1;
+            if (parent.get(child) == node
+                    && labelLength.get(child) == length
+                    && regionMatches(hostname, start, labelStart.get(child), length)) {
+                return child;
+            }
+            h = (h + 1) & mask;
+        }
+        return -1;
+    }
+
+    private boolean regionMatches(String hostname, int start, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (hostname.charAt(start + i) != labels.get(offset + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the node of a host or domain name (&quot;<code>.</code>&quot; for the root) if it is
+     *     contained in the trie, otherwise -1
+     */
+    int lookup(String name) {
+        if (".".equals(name)) {
+            return ROOT;
+        }
+        int node = find(name);
+        return (node != ROOT && nameLength.get(node) == name.length()) ? node : -1;
+    }
+
+    /** @return length of the host or domain name represented by the node */
+    int nameLength(int node) {
+        return nameLength.get(node);
+    }
+
+    /** @return whether the node represents the entire host name, not only a suffix of it */
+    boolean isHost(int node, String hostname) {
+        return node != ROOT && nameLength.get(node) == hostname.length();
+    }
+
+    /** @return parent node (next shorter domain name) or -1 for the root */
+    int parent(int node) {
+        return parent.get(node);
+    }
+
+    /** @return the host rules defined for the node or null */
+    RuleGroup hostRules(int node) {
+        return group(hostGroup.get(node), node, true);
+    }
+
+    /** @return the domain rules defined for the node or null */
+    RuleGroup domainRules(int node) {
+        return group(domainGroup.get(node), node, false);
+    }
+
+    int getNumHostRules() {
+        return numHostRules;
+    }
+
+    int getNumDomainRules() {
+        return numDomainRules;
+    }
+
+    private RuleGroup group(int id, int node, boolean host) {
+        if (id == -1) {
+            return null;
+        }
+        RuleGroup group = groups.get(id);
+        if (group == null) {
+            // compiling the same group concurrently is harmless
+            group = new RuleGroup(scope(host, name(node)), readGroup(id));
+            groups.set(id, group);
+        }
+        return group;
+    }
+
+    /** @return the host or domain name represented by a node */
+    private String name(int node) {
+        StringBuilder name = new StringBuilder(nameLength.get(node));
+        for (; node != ROOT; node = parent.get(node)) {
+            if (name.length() > 0) {
+                name.append('.');
+            }
+            int start = labelStart.get(node);
+            for (int i = 0; i < labelLength.get(node); i++) {
+                name.append(labels.get(start + i));
+            }
+        }
+        return name.toString();
+    }
+
+    /** @return scope of the rules in metrics, see {@link RuleStats} */
+    private static String scope(boolean host, String name) {
+        if (host) {
+            return "host:" + name;
+        } else if (name.isEmpty() || ".".equals(name)) {
+            return "global";
+        }
+        return "domain:" + name;
+    }
+
+    private List<Rule> readGroup(int id) {
+        int offset = groupOffsets.get(id);
+        int count = ruleData.getInt(offset);
+        offset += 4;
+        List<Rule> rules = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte type = ruleData.get(offset);
+            int length = ruleData.getInt(offset + 1);
+            byte[] regex = new byte[length];
+            ruleData.get(offset + 5, regex);
+            offset += 5 + length;
+            rules.add(createRule(type, new String(regex, StandardCharsets.UTF_8)));
+        }
+        return rules;
+    }
+
+    private static Rule createRule(byte type, String regex) {
+        switch (type) {
+            case TYPE_DENY_ALL:
+                return DenyAllRule.getInstance();
+            case TYPE_DENY_PATH:
+                return new DenyPathRule(regex);
+            case TYPE_DENY_PATH_QUERY:
+                return new DenyPathQueryRule(regex);
+            default:
+                return new Rule(regex);
+        }
+    }
+
+    private static byte getType(Rule rule) {
+        if (rule instanceof DenyAllRule) {
+            return TYPE_DENY_ALL;
+        } else if (rule instanceof DenyPathRule) {
+            return TYPE_DENY_PATH;
+        } else if (rule instanceof DenyPathQueryRule) {
+            return TYPE_DENY_PATH_QUERY;
+        }
+        return TYPE_RULE;
+    }
+
+    private static int hash(int node, CharSequence s, int start, int length) {
+        int h = node * 0x9E3779B9;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + s.charAt(start + i);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Memory-map a binary index file read-only.
+     *
+     * @throws IOException if the file cannot be read or is not a valid index
+     */
+    static DomainTrie map(Path path) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.capacity() < 40 || buffer.getInt(0) != INDEX_MAGIC) {
+            throw new IOException("Not a rule index file: " + path);
+        }
+        int version = buffer.getInt(4);
+        if (version != INDEX_VERSION) {
+            throw new IOException("Unsupported version " + version + " of rule index " + path);
+        }
+        int numNodes = buffer.getInt(8);
+        int numLabelChars = buffer.getInt(12);
+        int edgeCapacity = buffer.getInt(16);
+        int numGroups = buffer.getInt(20);
+        int ruleDataLength = buffer.getInt(24);
+        int numHostRules = buffer.getInt(28);
+        int numDomainRules = buffer.getInt(32);
+
+        int offset = 36;
+        IntBuffer[] nodeArrays = new IntBuffer[6];
+        for (int i = 0; i < nodeArrays.length; i++) {
+            nodeArrays[i] = slice(buffer, offset, 4 * numNodes).asIntBuffer();
+            offset += 4 * numNodes;
+        }
+        IntBuffer edges = slice(buffer, offset, 4 * edgeCapacity).asIntBuffer();
+        offset += 4 * edgeCapacity;
+        IntBuffer groupOffsets = slice(buffer, offset, 4 * numGroups).asIntBuffer();
+        offset += 4 * numGroups;
+        CharBuffer labels = slice(buffer, offset, 2 * numLabelChars).asCharBuffer();
+        offset += 2 * numLabelChars;
+        ByteBuffer ruleData = slice(buffer, offset, ruleDataLength);
+
+        return new DomainTrie(
+                nodeArrays[0],
+                nodeArrays[1],
+                nodeArrays[2],
+                nodeArrays[3],
+                labels,
+                nodeArrays[4],
+                nodeArrays[5],
+                edges,
+                groupOffsets,
+                ruleData,
+                new AtomicReferenceArray<>(numGroups),
+                numHostRules,
+                numDomainRules);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) throws IOException {
+        if (offset + length > buffer.capacity()) {
+            throw new IOException("Truncated rule index");
+        }
+        return buffer.slice(offset, length);
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    /** Collects rules per host and domain name, not thread-safe */
+    static final class Builder {
+
+        private int size = 1;
+        private int[] parent = {-1};
+        private int[] labelStart = new int[1];
+        private int[] labelLength = new int[1];
+        private int[] nameLength = new int[1];
+        private int[] hostGroup = {-1};
+        private int[] domainGroup = {-1};
+        private final StringBuilder labels = new StringBuilder();
+
+        private final List<Collection<Rule>> groups = new ArrayList<>();
+        private final List<String> groupScopes = new ArrayList<>();
+
+        private int numHostRules;
+        private int numDomainRules;
+
+        /** nodes by host or domain name, only needed while building */
+        private final Map<String, Integer> nodes = new HashMap<>();
+
+        private Builder() {}
+
+        Builder addHostRule(String hostname, Rule rule) {
+            int node = node(hostname);
+            if (hostGroup[node] == -1) {
+                hostGroup[node] = newGroup(scope(true, hostname));
+            }
+            if (groups.get(hostGroup[node]).add(rule)) {
+                numHostRules++;
+            }
+            return this;
+        }
+
+        /** @param domain domain name or &quot;<code>.</code>&quot; for global rules */
+        Builder addDomainRule(String domain, Rule rule) {
+            int node = ".".equals(domain) ? ROOT : node(domain);
+            if (domainGroup[node] == -1) {
+                domainGroup[node] = newGroup(scope(false, domain));
+            }
+            if (groups.get(domainGroup[node]).add(rule)) {
+                numDomainRules++;
+            }
+            return this;
+        }
+
+        /**
+         * Define the rules of a host, replacing previously added ones. In difference to {@link
+         * #addHostRule(String, Rule)} the host is assigned a rule group even if the collection of
+         * rules is empty.
+         */
+        Builder setHostRules(String hostname, Collection<Rule> rules) {
+            int node = node(hostname);
+            if (hostGroup[node] != -1) {
+                numHostRules -= groups.get(hostGroup[node]).size();
+            }
+            hostGroup[node] = newGroup(scope(true, hostname));
+            groups.get(hostGroup[node]).addAll(rules);
+            numHostRules += groups.get(hostGroup[node]).size();
+            return this;
+        }
+
+        /** Define the rules of a domain, see {@link #setHostRules(String, Collection)} */
+        Builder setDomainRules(String domain, Collection<Rule> rules) {
+            int node = ".".equals(domain) ? ROOT : node(domain);
+            if (domainGroup[node] != -1) {
+                numDomainRules -= groups.get(domainGroup[node]).size();
+            }
+            domainGroup[node] = newGroup(scope(false, domain));
+            groups.get(domainGroup[node]).addAll(rules);
+            numDomainRules += groups.get(domainGroup[node]).size();
+            return this;
+        }
+
+        int getNumHostRules() {
+            return numHostRules;
+        }
+
+        int getNumDomainRules() {
+            return numDomainRules;
+        }
+
+        private int newGroup(String scope) {
+            groups.add(new LinkedHashSet<>());
+            groupScopes.add(scope);
+            return groups.size() - 1;
+        }
+
+        private int node(String name) {
+            Integer existing = nodes.get(name);
+            if (existing != null) {
+                return existing;
+            }
+            // the first label is added below the node of the remaining domain name
+            int dot = name.indexOf('.');
+            int parentNode = (dot == -1) ? ROOT : node(name.substring(dot + 1));
+            int length = (dot == -1) ? name.length() : dot;
+
+            if (size == parent.length) {
+                int capacity = size * 2;
+                parent = Arrays.copyOf(parent, capacity);
+                labelStart = Arrays.copyOf(labelStart, capacity);
+                labelLength = Arrays.copyOf(labelLength, capacity);
+                nameLength = Arrays.copyOf(nameLength, capacity);
+                hostGroup = Arrays.copyOf(hostGroup, capacity);
+                domainGroup = Arrays.copyOf(domainGroup, capacity);
+                Arrays.fill(hostGroup, size, capacity, -1);
+                Arrays.fill(domainGroup, size, capacity, -1);
+            }
+            int node = size++;
+            parent[node] = parentNode;
+            labelStart[node] = labels.length();
+            labelLength[node] = length;
+            nameLength[node] = name.length();
+            labels.append(name, 0, length);
+            nodes.put(name, node);
+            return node;
+        }
+
+        private int[] buildEdges() {
+            // load factor below 0.5
+            int capacity = Integer.highestOneBit(Math.max(2, size) * 2) * 2;
+            int[] edges = new int[capacity];
+            int mask = capacity - 1;
+            for (int node = 1; node < size; node++) {
+                int h = hash(parent[node], labels, labelStart[node], labelLength[node]) & mask;
+                while (edges[h] != 0) {
+                    h = (h + 1) & mask;
+                }
+                edges[h] = node + 1;
+            }
+            return edges;
+        }
+
+        /** Build a trie on the heap, all rules are compiled immediately */
+        DomainTrie build() {
+            AtomicReferenceArray<RuleGroup> compiled = new AtomicReferenceArray<>(groups.size());
+            for (int i = 0; i < groups.size(); i++) {
+                compiled.set(i, new RuleGroup(groupScopes.get(i), groups.get(i)));
+            }
+            return new DomainTrie(
+                    IntBuffer.wrap(Arrays.copyOf(parent, size)),
+                    IntBuffer.wrap(Arrays.copyOf(labelStart, size)),
+                    IntBuffer.wrap(Arrays.copyOf(labelLength, size)),
+                    IntBuffer.wrap(Arrays.copyOf(nameLength, size)),
+                    CharBuffer.wrap(labels.toString().toCharArray()),
+                    IntBuffer.wrap(Arrays.copyOf(hostGroup, size)),
+                    IntBuffer.wrap(Arrays.copyOf(domainGroup, size)),
+                    IntBuffer.wrap(buildEdges()),
+                    null,
+                    null,
+                    compiled,
+                    numHostRules,
+                    numDomainRules);
+        }
+
+        /** Write the trie and the (uncompiled) rules as binary index, see {@link #map(Path)} */
+        void writeIndex(OutputStream stream) throws IOException {
+            ByteArrayOutputStream ruleBytes = new ByteArrayOutputStream();
+            DataOutputStream ruleData = new DataOutputStream(ruleBytes);
+            int[] groupOffsets = new int[groups.size()];
+            for (int i = 0; i < groups.size(); i++) {
+                groupOffsets[i] = ruleData.size();
+                ruleData.writeInt(groups.get(i).size());
+                for (Rule rule : groups.get(i)) {
+                    byte[] regex = rule.toString().getBytes(StandardCharsets.UTF_8);
+                    ruleData.writeByte(getType(rule));
+                    ruleData.writeInt(regex.length);
+                    ruleData.write(regex);
+                }
+            }
+            ruleData.flush();
+            int[] edges = buildEdges();
+
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeInt(size);
+            out.writeInt(labels.length());
+            out.writeInt(edges.length);
+            out.writeInt(groups.size());
+            out.writeInt(ruleBytes.size());
+            out.writeInt(numHostRules);
+            out.writeInt(numDomainRules);
+            for (int[] array :
+                    new int[][] {
+                        parent, labelStart, labelLength, nameLength, hostGroup, domainGroup
+                    }) {
+                for (int i = 0; i < size; i++) {
+                    out.writeInt(array[i]);
+                }
+            }
+            for (int edge : edges) {
+                out.writeInt(edge);
+            }
+            for (int offset : groupOffsets) {
+                out.writeInt(offset);
+            }
+            out.writeChars(labels.toString());
+            ruleBytes.writeTo(out);
+            out.flush();
+        }
+    }
+}
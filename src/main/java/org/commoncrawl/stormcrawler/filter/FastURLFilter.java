@@ -19,21 +19,15 @@ package org.commoncrawl.stormcrawler.filter;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.google.common.collect.LinkedHashMultimap;
-import com.google.common.collect.Multimap;
-import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.Reader;
 import java.lang.invoke.MethodHandles;
 import java.net.URL;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
-import java.util.zip.GZIPInputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.stormcrawler.JSONResource;
 import org.apache.stormcrawler.Metadata;
@@ -41,11 +35,6 @@ import org.apache.stormcrawler.filtering.URLFilter;
 import org.apache.stormcrawler.util.ConfUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
-import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.GetObjectRequest;
-import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
-import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
 
 /**
  * Version of the FastURLFilter that can load from a text representation instead of the JSON that
@@ -88,48 +77,104 @@ import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
  *
  * The first matching rule will reject the URL and no further rules are checked. If no rule matches
  * the URL is accepted. URLs without a host name (e.g., <code>file:/path/file.txt</code> are checked
- * for global rules only. URLs which fail to be parsed as {@link java.net.URL} are always rejected.
+ * for global rules only. URLs which fail to be parsed (see {@link ParsedURL}) are always rejected.
  *
  * <p>For rules either the URL path (<code>DenyPath</code>) or path and query (<code>DenyPathQuery
  * </code>) are checked whether the given {@link java.util.regex Java Regular expression} is found
  * (see {@link java.util.regex.Matcher#find()}) in the URL path (and query).
  *
- * <p>Rules are applied in the order of their definition. For better performance, regular
- * expressions which are simpler/faster or match more URLs should be defined earlier.
+ * <p>All rules defined for one host or domain are compiled into a single matcher (see {@link
+ * RuleGroup}), so that the URL path (and query) is scanned once per host or domain, mostly
+ * independent of the number of rules. Host and domain names are held in a trie over their reversed
+ * labels, looking up all rules for a URL takes a single pass over the host name.
  *
  * <p>Comments in the rule file start with the <code>#</code> character and reach until the end of
  * the line.
  *
  * <p>The rules file is defined via the property <code>urlfilter.fast.file</code>, the default name
  * is <code>fast-urlfilter.txt</code>.
+ *
+ * <p>Large rule files should be compiled into a binary index by {@link FastURLFilterCompiler}. If
+ * the file name ends in <code>.idx</code> the index is memory-mapped read-only from the local file
+ * system, so that all workers on a node share one copy in the page cache and startup does not
+ * require to parse the rules. The rules of a host or domain are compiled when first needed.
+ *
+ * <p>Changes can be shipped in a delta file (<code>fast.urlfilter.delta.file</code> or <code>delta
+ * </code> in the filter parameters) which adds or removes rules of single hosts or domains, see
+ * {@link RuleDelta}. Rule and delta files are read from the class path, the local file system or
+ * S3, and reloaded in a background thread every <code>fast.urlfilter.refresh</code> seconds if they
+ * have changed (according to S3 ETag resp. modification time and size). All filters in a JVM
+ * configured with the same files and refresh rate share one copy of the rules and one reload
+ * thread, see {@link RulesRegistry}.
+ *
+ * <p>Hits and evaluation time per rule and per host or domain are reported as Storm metrics if
+ * <code>fast.urlfilter.metrics</code> is true, see {@link FastURLFilterMetric}. Optionally, the
+ * regular expressions of a host or domain which are evaluated one after the other are reordered by
+ * their hit rate every <code>fast.urlfilter.reorder.secs</code> seconds.
+ *
+ * <p>If <code>fast.urlfilter.sharded</code> is true and the filter is configured with a shard index
+ * and count (see {@link HostShards}), only the rules of hosts and domains assigned to this shard
+ * are loaded. The URLs must then be routed to the filter instances by the same assignment.
+ *
+ * <p>Rules are compiled into an immutable snapshot which is published atomically once it is
+ * completely loaded. Filtering does not take any lock and a (re)load never blocks concurrent calls
+ * of {@link #filter(URL, Metadata, String)}: until the new snapshot is published the previous rules
+ * stay in use.
  */
-public class FastURLFilter extends URLFilter implements JSONResource {
+public class FastURLFilter extends URLFilter implements JSONResource, ParsedURLFilter {
 
     protected static final Logger LOG =
             LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
     public static final String URLFILTER_FAST_FILE = "urlfilter.fast.file";
-    private Multimap<String, Rule> hostRules = LinkedHashMultimap.create();
-    private Multimap<String, Rule> domainRules = LinkedHashMultimap.create();
 
-    private String resourceFile;
+    /**
+     * Collect hits and evaluation time per rule, see {@link FastURLFilterMetric}. Enabled JVM-wide
+     * once a filter is configured with this property set to true.
+     */
+    public static final String METRICS_PARAM = "fast.urlfilter.metrics";
+
+    /** Time bucket in seconds of the rule metrics, 60 seconds by default. */
+    public static final String METRICS_TIME_BUCKET_PARAM =
+            "fast.urlfilter.metrics.time.bucket.secs";
+
+    /**
+     * Interval in seconds to reorder the regular expressions of a host or domain by their hit rate,
+     * disabled by default. Enables collecting statistics.
+     */
+    public static final String REORDER_PARAM = "fast.urlfilter.reorder.secs";
+
+    /** File name suffix of binary rule indexes, see {@link FastURLFilterCompiler} */
+    public static final String INDEX_SUFFIX = ".idx";
+
+    /**
+     * Loads and holds the current rules, replaced as a whole on every successful (re)load. Shared
+     * with all filters in the JVM using the same configuration, see {@link RulesRegistry}.
+     */
+    private RulesLoader loader = new RulesLoader(null, null, null);
+
+    /** whether the loader was obtained from the {@link RulesRegistry} */
+    private boolean shared = false;
 
     private static final Pattern CATCH_ALL_RULE =
             Pattern.compile("^\\s*DenyPath(?:Query)?\\s+\\.[*?]\\s*$");
 
-    private String resourceETAG;
-
     public void configure(@SuppressWarnings("rawtypes") Map stormConf, JsonNode filterParams) {
 
         // read from conf first
         int refreshRate = ConfUtils.getInt(stormConf, "fast.urlfilter.refresh", -1);
-        this.resourceFile = ConfUtils.getString(stormConf, "fast.urlfilter.file", null);
+        String resourceFile = ConfUtils.getString(stormConf, "fast.urlfilter.file", null);
+        String deltaFile = ConfUtils.getString(stormConf, "fast.urlfilter.delta.file", null);
 
         // then from the param file (which needs recompiling in case of change)
         if (filterParams != null) {
             JsonNode node = filterParams.get("file");
-            if (node != null && node.isTextual() && this.resourceFile == null) {
-                this.resourceFile = node.asText();
+            if (node != null && node.isTextual() && resourceFile == null) {
+                resourceFile = node.asText();
+            }
+            node = filterParams.get("delta");
+            if (node != null && node.isTextual() && deltaFile == null) {
+                deltaFile = node.asText();
             }
             node = filterParams.get("refresh");
             if (node != null && node.isInt() && refreshRate == -1) {
@@ -137,243 +182,202 @@ public class FastURLFilter extends URLFilter implements JSONResource {
             }
         }
 
-        try {
-            loadJSONResources();
-        } catch (Exception e) {
-            LOG.error("Exception while loading resources", e);
+        // statistics are collected JVM-wide, see FastURLFilterMetric
+        boolean metrics = ConfUtils.getBoolean(stormConf, METRICS_PARAM, false);
+        int reorderInterval = ConfUtils.getInt(stormConf, REORDER_PARAM, -1);
+        if (metrics || reorderInterval > 0) {
+            RuleStats.setEnabled(true);
         }
 
-        if (refreshRate != -1) {
-            LOG.info("Filter set to reload from {} every {} sec", getResourceFile(), refreshRate);
-            new Timer()
-                    .schedule(
-                            new TimerTask() {
-                                public void run() {
-                                    LOG.info("Reloading resources");
-                                    try {
-                                        loadJSONResources();
-                                    } catch (Exception e) {
-                                        LOG.error("Can't load resources", e);
-                                    }
-                                }
-                            },
-                            refreshRate * 1000,
-                            refreshRate * 1000);
+        HostShards shards = null;
+        if (ConfUtils.getBoolean(stormConf, HostShards.SHARDED_PARAM, false)) {
+            int count = ConfUtils.getInt(stormConf, HostShards.SHARD_COUNT_PARAM, 1);
+            if (count > 1) {
+                int index = ConfUtils.getInt(stormConf, HostShards.SHARD_INDEX_PARAM, 0);
+                shards = new HostShards(index, count);
+            }
+        }
+
+        loader = RulesRegistry.acquire(resourceFile, deltaFile, refreshRate, shards);
+        shared = true;
+
+        if (reorderInterval > 0) {
+            RulesRegistry.scheduleReordering(reorderInterval);
         }
     }
 
     /**
-     * Load the resources from the JSON file in the uber jar or from S3
+     * Load the resources from the rules file in the uber jar, the local file system or from S3, and
+     * apply the delta file if configured. Files which have not changed since the last load are
+     * skipped.
      *
      * @throws Exception
      */
     @Override
     public void loadJSONResources() throws Exception {
-        InputStream inputStream = null;
-        S3Client s3client = null;
-        try {
-            if (getResourceFile().startsWith("s3://")) {
-                // try loading from S3
-                s3client = S3Client.builder().httpClient(UrlConnectionHttpClient.create()).build();
-                java.net.URI uri = new java.net.URI(getResourceFile());
-
-                String bucketName = uri.getHost();
-                // remove the first "/"
-                String path = uri.getPath().substring(1);
-
-                // optimisation - avoid a full reload if the resource has not changed
-                HeadObjectResponse headResponse =
-                        s3client.headObject(
-                                HeadObjectRequest.builder().bucket(bucketName).key(path).build());
-                final String ETAG = headResponse.eTag();
-                if (ETAG != null && ETAG.equals(resourceETAG)) {
-                    LOG.info("Unchanged ETAG for {} - skipping reload", getResourceFile());
-                    return;
-                } else {
-                    resourceETAG = ETAG;
-                }
-
-                inputStream =
-                        s3client.getObject(
-                                GetObjectRequest.builder().bucket(bucketName).key(path).build());
-            } else {
-                inputStream = getClass().getClassLoader().getResourceAsStream(getResourceFile());
-                if (inputStream == null) {
-                    LOG.error("Can't load conf from {}", getResourceFile());
-                    return;
-                }
-            }
-            if (getResourceFile().endsWith(".gz")) {
-                inputStream = new GZIPInputStream(inputStream);
-            }
-
-            loadJSONResources(new BufferedInputStream(inputStream));
-        } finally {
-            if (inputStream != null) {
-                inputStream.close();
-            }
-            if (s3client != null) {
-                s3client.close();
-            }
-        }
+        loader.load();
     }
 
+    /**
+     * Load the rules from a stream. Rules loaded explicitly are private to this filter instance: if
+     * the rules have been shared with other filters, this filter stops using the shared rules.
+     */
     @Override
     public void loadJSONResources(InputStream inputStream)
             throws JsonParseException, JsonMappingException, IOException {
-        long start = System.currentTimeMillis();
-
-        try (Reader r = new InputStreamReader(inputStream)) {
-            reloadRules(r);
+        if (shared) {
+            RulesLoader privateLoader = new RulesLoader(getResourceFile(), null, null);
+            privateLoader.load(inputStream);
+            RulesRegistry.release(loader);
+            loader = privateLoader;
+            shared = false;
+            return;
         }
+        loader.load(inputStream);
+    }
 
-        long end = System.currentTimeMillis();
-        LOG.info(
-                "Loaded {} hostrules and {} domain rules in {} msec from {}",
-                hostRules.size(),
-                domainRules.size(),
-                (end - start),
-                resourceFile);
+    /**
+     * @return version of the rules of all filters in the JVM, changes whenever any filter has
+     *     (re)loaded its rules. Allows to invalidate verdicts cached outside of the filter.
+     */
+    public static long getRulesVersion() {
+        return RulesLoader.getPublishedCount();
     }
 
     @Override
     public String getResourceFile() {
-        return resourceFile;
+        return loader.getResourceFile();
     }
 
     @Override
     public String filter(URL sourceUrl, Metadata sourceMetadata, String urlToFilter) {
-        synchronized (this) {
-            URL u;
-
-            try {
-                u = new URL(urlToFilter);
-            } catch (Exception e) {
-                LOG.debug(
-                        "Rejected {} because failed to parse as URL: {}",
-                        urlToFilter,
-                        e.getMessage());
-                return null;
-            }
-
-            String hostname = u.getHost();
-
-            // first check for host-specific rules
-            for (Rule rule : hostRules.get(hostname)) {
-                if (rule.match(u)) {
-                    return null;
-                }
-            }
+        ParsedURL u = ParsedURL.parse(urlToFilter);
+        if (u == null) {
+            LOG.debug("Rejected {} because failed to parse as URL", urlToFilter);
+            return null;
+        }
+        return filter(sourceUrl, sourceMetadata, u);
+    }
 
-            // also look up domain rules for host name
-            for (Rule rule : domainRules.get(hostname)) {
-                if (rule.match(u)) {
-                    return null;
-                }
-            }
+    @Override
+    public String filter(URL sourceUrl, Metadata sourceMetadata, ParsedURL u) {
+        // snapshot of the rules, not affected by a concurrent reload
+        final Rules current = loader.getRules();
 
-            // check suffixes of host name from longer to shorter:
-            // subdomains, domain, top-level domain
-            int start = 0;
-            int pos;
-            while ((pos = hostname.indexOf('.', start)) != -1) {
-                start = pos + 1;
-                String domain = hostname.substring(start);
-                for (Rule rule : domainRules.get(domain)) {
-                    if (rule.match(u)) {
-                        return null;
-                    }
-                }
-            }
+        if (current.rejects(u.getHost(), u)) {
+            return null;
+        }
 
-            // finally check "global" rules defined for `Domain .`
-            for (Rule rule : domainRules.get(".")) {
-                if (rule.match(u)) {
-                    return null;
-                }
-            }
+        // no reject rules found
+        return u.toString();
+    }
 
-            // no reject rules found
-            return urlToFilter;
+    @Override
+    public void cleanup() {
+        if (shared) {
+            RulesRegistry.release(loader);
+            shared = false;
+        } else {
+            loader.close();
         }
     }
 
-    private void reloadRules(Reader rules) throws IOException {
-        synchronized (this) {
-            domainRules.clear();
-            hostRules.clear();
+    /** Parse the rules into a new snapshot, the currently used rules are left untouched. */
+    static DomainTrie.Builder readRules(Reader rulesReader) throws IOException {
+        return readRules(rulesReader, name -> true);
+    }
 
-            BufferedReader reader = new BufferedReader(rules);
+    /**
+     * Parse the rules into a new snapshot, skipping the rules of hosts and domains not accepted by
+     * the filter
+     */
+    static DomainTrie.Builder readRules(Reader rulesReader, Predicate<String> filter)
+            throws IOException {
+        DomainTrie.Builder rules = DomainTrie.builder();
 
-            String current = null;
-            boolean host = false;
-            int lineno = 0;
+        BufferedReader reader = new BufferedReader(rulesReader);
 
-            String line;
-            try {
-                while ((line = reader.readLine()) != null) {
-                    lineno++;
-                    line = line.trim();
+        String current = null;
+        boolean host = false;
+        int lineno = 0;
 
-                    if (line.indexOf("#") != -1) {
-                        // strip comments
-                        line = line.substring(0, line.indexOf("#")).trim();
+        String line;
+        try {
+            while ((line = reader.readLine()) != null) {
+                lineno++;
+                line = line.trim();
+
+                if (line.indexOf("#") != -1) {
+                    // strip comments
+                    line = line.substring(0, line.indexOf("#")).trim();
+                }
+
+                if (StringUtils.isBlank(line)) {
+                    continue;
+                }
+
+                if (line.startsWith("Host")) {
+                    host = true;
+                    current = line.split("\\s+")[1];
+                    if (!filter.test(current)) {
+                        current = null;
+                    }
+                } else if (line.startsWith("Domain")) {
+                    host = false;
+                    current = line.split("\\s+")[1];
+                    if (!filter.test(current)) {
+                        current = null;
+                    }
+                } else {
+                    if (current == null) {
+                        continue;
                     }
 
-                    if (StringUtils.isBlank(line)) {
+                    Rule rule = parseRule(line, lineno);
+                    if (rule == null) {
                         continue;
                     }
 
-                    if (line.startsWith("Host")) {
-                        host = true;
-                        current = line.split("\\s+")[1];
-                    } else if (line.startsWith("Domain")) {
-                        host = false;
-                        current = line.split("\\s+")[1];
+                    if (host) {
+                        LOG.trace("Adding host rule [{}] [{}]", current, rule);
+                        rules.addHostRule(current, rule);
                     } else {
-                        if (current == null) {
-                            continue;
-                        }
-
-                        Rule rule = null;
-                        try {
-                            if (CATCH_ALL_RULE.matcher(line).matches()) {
-                                rule = DenyAllRule.getInstance();
-                            } else if (line.startsWith("DenyPathQuery")) {
-                                rule = new DenyPathQueryRule(line.split("\\s+")[1]);
-                            } else if (line.startsWith("DenyPath")) {
-                                rule = new DenyPathRule(line.split("\\s+")[1]);
-                            } else {
-                                LOG.warn("Problem reading rule on line {}: {}", lineno, line);
-                                continue;
-                            }
-                        } catch (Exception e) {
-                            LOG.warn(
-                                    "Problem reading rule on line {}: {} - {}",
-                                    lineno,
-                                    line,
-                                    e.getMessage());
-                            continue;
-                        }
-
-                        if (host) {
-                            LOG.trace("Adding host rule [{}] [{}]", current, rule);
-                            hostRules.put(current, rule);
-                        } else {
-                            LOG.trace("Adding domain rule [{}] [{}]", current, rule);
-                            domainRules.put(current, rule);
-                        }
+                        LOG.trace("Adding domain rule [{}] [{}]", current, rule);
+                        rules.addDomainRule(current, rule);
                     }
                 }
+            }
+
+        } catch (IOException e) {
+            LOG.warn(
+                    "Caught exception while reading rules file at line {}: {}",
+                    lineno,
+                    e.getMessage());
+            throw e;
+        }
+
+        return rules;
+    }
 
-            } catch (IOException e) {
-                LOG.warn(
-                        "Caught exception while reading rules file at line {}: {}",
-                        lineno,
-                        e.getMessage());
-                throw e;
+    /**
+     * Parse a rule line (<code>DenyPath</code> or <code>DenyPathQuery</code>)
+     *
+     * @return the rule or null if the line is not a valid rule
+     */
+    static Rule parseRule(String line, int lineno) {
+        try {
+            if (CATCH_ALL_RULE.matcher(line).matches()) {
+                return DenyAllRule.getInstance();
+            } else if (line.startsWith("DenyPathQuery")) {
+                return new DenyPathQueryRule(line.split("\\s+")[1]);
+            } else if (line.startsWith("DenyPath")) {
+                return new DenyPathRule(line.split("\\s+")[1]);
             }
+            LOG.warn("Problem reading rule on line {}: {}", lineno, line);
+        } catch (Exception e) {
+            LOG.warn("Problem reading rule on line {}: {} - {}", lineno, line, e.getMessage());
         }
+        return null;
     }
 
     public static class Rule {
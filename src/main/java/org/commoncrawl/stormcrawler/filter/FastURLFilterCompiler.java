@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commoncrawl.stormcrawler.filter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compiles a rule file of the {@link FastURLFilter} (optionally gzipped) into a binary index which
+ * is memory-mapped by the filter if the configured file name ends in <code>.idx</code>:
+ *
+ * <pre>
+ * java -cp target/crawler-3.7.0.jar org.commoncrawl.stormcrawler.filter.FastURLFilterCompiler \
+ *   fast-urlfilter.txt.gz fast-urlfilter.idx
+ * </pre>
+ *
+ * Invalid rules are skipped with a warning, same as when the text file is loaded. The index is
+ * written to a temporary file which is then renamed, so that workers which have the previous
+ * version mapped are not affected.
+ */
+public class FastURLFilterCompiler {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    public static void compile(Path rulesFile, Path indexFile) throws IOException {
+        long start = System.currentTimeMillis();
+
+        DomainTrie.Builder rules;
+        try (InputStream in = open(rulesFile);
+                Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            rules = FastURLFilter.readRules(reader);
+        }
+
+        Path dir = indexFile.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, indexFile.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                rules.writeIndex(out);
+            }
+            Files.move(
+                    tmp,
+                    indexFile,
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+
+        LOG.info(
+                "Compiled {} host rules and {} domain rules from {} into {} in {} msec",
+                rules.getNumHostRules(),
+                rules.getNumDomainRules(),
+                rulesFile,
+                indexFile,
+                (System.currentTimeMillis() - start));
+    }
+
+    private static InputStream open(Path file) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(file));
+        if (file.getFileName().toString().endsWith(".gz")) {
+            in = new GZIPInputStream(in);
+        }
+        return in;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: FastURLFilterCompiler <rules file> <index file>");
+            System.exit(1);
+        }
+        compile(Paths.get(args[0]), Paths.get(args[1]));
+    }
+}
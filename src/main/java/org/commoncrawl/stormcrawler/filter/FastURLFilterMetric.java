@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commoncrawl.stormcrawler.filter;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.storm.metric.api.IMetric;
+
+/**
+ * Storm metric reporting the statistics collected by all {@link FastURLFilter} instances of the
+ * worker JVM since the last report, per host, domain and the global rules:
+ *
+ * <ul>
+ *   <li><code>&lt;scope&gt;.evaluations</code> - number of URLs checked by the rules of the host or
+ *       domain
+ *   <li><code>&lt;scope&gt;.time_us</code> - time spent to evaluate the rules
+ *   <li><code>&lt;scope&gt;#&lt;n&gt;.hits</code> - URLs rejected by the n-th rule (counting from
+ *       0) of the host or domain
+ *   <li><code>&lt;scope&gt;#&lt;n&gt;.time_us</code> - time spent to evaluate the n-th rule, only
+ *       for regular expressions which are not plain literals
+ * </ul>
+ *
+ * The scope is <code>host:&lt;hostname&gt;</code>, <code>domain:&lt;domain&gt;</code> or <code>
+ * global</code>. Only counters which have changed are reported. If the metric is registered by
+ * multiple tasks of the same worker, each report includes the statistics collected since the last
+ * report by any of the tasks.
+ */
+public class FastURLFilterMetric implements IMetric {
+
+    @Override
+    public Object getValueAndReset() {
+        Map<String, Long> values = new HashMap<>();
+        RuleStats.drainTo(values);
+        return values;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commoncrawl.stormcrawler.filter;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.apache.stormcrawler.Metadata;
+import org.apache.stormcrawler.filtering.URLFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Chain of URL filters which parses the URL only once: filters implementing {@link ParsedURLFilter}
+ * (e.g. the {@link FastURLFilter}) are passed the same {@link ParsedURL}, all other filters are
+ * passed the URL string. The URL is parsed again only if a filter has modified it.
+ *
+ * <p>The chain is configured in the same way as the {@link
+ * org.apache.stormcrawler.filtering.URLFilters}, either by the list of filters in the parameter
+ * <code>filters</code> or by a JSON file (parameter <code>file</code>, read from the file system or
+ * the class path) which holds the list of filters below the key <code>
+ * org.apache.stormcrawler.filtering.URLFilters</code>. To fuse an existing chain, replace it by
+ *
+ * <pre>
+ * {
+ *   "org.apache.stormcrawler.filtering.URLFilters": [
+ *     {
+ *       "class": "org.commoncrawl.stormcrawler.filter.FusedURLFilter",
+ *       "name": "FusedURLFilter",
+ *       "params": {
+ *         "filters": [ ... the filters of the existing chain ... ]
+ *       }
+ *     }
+ *   ]
+ * }
+ * </pre>
+ */
+public class FusedURLFilter extends URLFilter {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    private static final String FILTERS_KEY = "org.apache.stormcrawler.filtering.URLFilters";
+
+    private URLFilter[] filters = new URLFilter[0];
+
+    /** per filter: the filter if it implements ParsedURLFilter, otherwise null */
+    private ParsedURLFilter[] parsedURLFilters = new ParsedURLFilter[0];
+
+    @Override
+    public void configure(@SuppressWarnings("rawtypes") Map stormConf, JsonNode filterParams) {
+        JsonNode filtersConf = null;
+        if (filterParams != null) {
+            filtersConf = filterParams.get("filters");
+            JsonNode file = filterParams.get("file");
+            if (filtersConf == null && file != null && file.isTextual()) {
+                try {
+                    filtersConf = readFile(file.asText()).get(FILTERS_KEY);
+                } catch (IOException e) {
+                    throw new RuntimeException("Can't read URL filters from " + file.asText(), e);
+                }
+            }
+        }
+        if (filtersConf == null || !filtersConf.isArray()) {
+            LOG.warn("No URL filters configured");
+            return;
+        }
+
+        List<URLFilter> list = new ArrayList<>();
+        for (JsonNode filterConf : filtersConf) {
+            String className = filterConf.path("class").asText();
+            URLFilter filter;
+            try {
+                filter =
+                        Class.forName(className)
+                                .asSubclass(URLFilter.class)
+                                .getDeclaredConstructor()
+                                .newInstance();
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                throw new RuntimeException("Can't instantiate URL filter " + className, e);
+            }
+            filter.configure(stormConf, filterConf.get("params"));
+            LOG.info("Loaded URL filter {} ({})", filterConf.path("name").asText(), className);
+            list.add(filter);
+        }
+
+        filters = list.toArray(new URLFilter[0]);
+        parsedURLFilters = new ParsedURLFilter[filters.length];
+        for (int i = 0; i < filters.length; i++) {
+            if (filters[i] instanceof ParsedURLFilter) {
+                parsedURLFilters[i] = (ParsedURLFilter) filters[i];
+            }
+        }
+    }
+
+    private JsonNode readFile(String file) throws IOException {
+        Path path = Paths.get(file);
+        if (Files.exists(path)) {
+            try (InputStream in = Files.newInputStream(path)) {
+                return new ObjectMapper().readTree(in);
+            }
+        }
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(file)) {
+            if (in == null) {
+                throw new IOException("File not found: " + file);
+            }
+            return new ObjectMapper().readTree(in);
+        }
+    }
+
+    @Override
+    public String filter(URL sourceUrl, Metadata sourceMetadata, String urlToFilter) {
+        String url = urlToFilter;
+        ParsedURL parsed = null;
+        for (int i = 0; i < filters.length; i++) {
+            String filtered;
+            if (parsedURLFilters[i] != null) {
+                if (parsed == null) {
+                    parsed = ParsedURL.parse(url);
+                    if (parsed == null) {
+                        LOG.debug("Rejected {} because failed to parse as URL", url);
+                        return null;
+                    }
+                }
+                filtered = parsedURLFilters[i].filter(sourceUrl, sourceMetadata, parsed);
+            } else {
+                filtered = filters[i].filter(sourceUrl, sourceMetadata, url);
+            }
+            if (filtered == null) {
+                return null;
+            }
+            if (filtered != url && !filtered.equals(url)) {
+                // modified by a normalizer, parse again when needed
+                url = filtered;
+                parsed = null;
+            }
+        }
+        return url;
+    }
+
+    @Override
+    public void cleanup() {
+        for (URLFilter filter : filters) {
+            filter.cleanup();
+        }
+    }
+}
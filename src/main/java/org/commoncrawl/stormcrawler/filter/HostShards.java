@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commoncrawl.stormcrawler.filter;
+
+import crawlercommons.domains.EffectiveTldFinder;
+import java.util.function.Predicate;
+
+/**
+ * Assigns host names and the host and domain names of {@link FastURLFilter} rules to shards, so
+ * that every filter instance only needs to hold the rules of one shard. URLs are assigned by the
+ * registered domain of their host name (e.g. <code>example.com</code> for <code>
+ * www.example.com</code>). Rules for a host or domain are assigned to the shard of its registered
+ * domain. Rules for public suffixes (e.g. <code>Domain co.uk</code>), host names without a
+ * registered domain (e.g. <code>localhost</code> or IP addresses) and the global rules are
+ * replicated to all shards.
+ */
+public final class HostShards implements Predicate<String> {
+
+    /** Enable sharding of the rules by the registered domain of the URLs */
+    public static final String SHARDED_PARAM = "fast.urlfilter.sharded";
+
+    /** Shard of a filter instance, set by the bolt holding the filter */
+    public static final String SHARD_INDEX_PARAM = "fast.urlfilter.shard.index";
+
+    /** Number of shards, set by the bolt holding the filter */
+    public static final String SHARD_COUNT_PARAM = "fast.urlfilter.shard.count";
+
+    private final int index;
+    private final int count;
+
+    public HostShards(int index, int count) {
+        if (count < 1 || index < 0 || index >= count) {
+            throw new IllegalArgumentException("Invalid shard " + index + " of " + count);
+        }
+        this.index = index;
+        this.count = count;
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    /** @return the shard of a host name */
+    public static int getShard(String hostname, int numShards) {
+        String domain = EffectiveTldFinder.getAssignedDomain(hostname, true, false);
+        String key = (domain != null) ? domain : hostname;
+        return Math.floorMod(key.hashCode(), numShards);
+    }
+
+    /**
+     * @param name host or domain name of a rule block, &quot;<code>.</code>&quot; for the global
+     *     rules
+     * @return whether the rules for the name are needed by this shard
+     */
+    @Override
+    public boolean test(String name) {
+        if (count == 1 || ".".equals(name)) {
+            return true;
+        }
+        String domain = EffectiveTldFinder.getAssignedDomain(name, true, false);
+        if (domain == null) {
+            // may apply to URLs of any shard
+            return true;
+        }
+        return Math.floorMod(domain.hashCode(), count) == index;
+    }
+
+    @Override
+    public String toString() {
+        return "shard " + index + " of " + count;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commoncrawl.stormcrawler.filter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aho-Corasick automaton to find a set of literal strings in a single pass over the input. The
+ * automaton is immutable once compiled and can be shared between threads.
+ *
+ * <p>Literals are identified by their position in the list passed to {@link #compile(List)}. The
+ * same literal may be passed multiple times.
+ */
+final class LiteralMatcher {
+
+    private static final int[] NO_LITERALS = new int[0];
+
+    /** sorted transition labels per state */
+    private final char[][] labels;
+
+    /** target states, parallel to {@link #labels} */
+    private final int[][] targets;
+
+    private final int[] fail;
+
+    /** literals ending in a state */
+    private final int[][] literals;
+
+    /** nearest state on the failure chain with literals, 0 if there is none */
+    private final int[] dictionary;
+
+    private LiteralMatcher(
+            char[][] labels, int[][] targets, int[] fail, int[][] literals, int[] dictionary) {
+        this.labels = labels;
+        this.targets = targets;
+        this.fail = fail;
+        this.literals = literals;
+        this.dictionary = dictionary;
+    }
+
+    /** @param literals non-empty strings to search for */
+    static LiteralMatcher compile(List<String> literals) {
+        List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        List<List<Integer>> out = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        out.add(new ArrayList<>());
+
+        for (int index = 0; index < literals.size(); index++) {
+            String literal = literals.get(index);
+            int state = 0;
+            for (int i = 0; i < literal.length(); i++) {
+                Integer next = trie.get(state).get(literal.charAt(i));
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<>());
+                    out.add(new ArrayList<>());
+                    trie.get(state).put(literal.charAt(i), next);
+                }
+                state = next;
+            }
+            out.get(state).add(index);
+        }
+
+        int numStates = trie.size();
+        char[][] labels = new char[numStates][];
+        int[][] targets = new int[numStates][];
+        int[][] literalsPerState = new int[numStates][];
+        for (int s = 0; s < numStates; s++) {
+            Map<Character, Integer> children = trie.get(s);
+            labels[s] = new char[children.size()];
+            targets[s] = new int[children.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> e : children.entrySet()) {
+                labels[s][i] = e.getKey();
+                targets[s][i] = e.getValue();
+                i++;
+            }
+            List<Integer> ending = out.get(s);
+            literalsPerState[s] =
+                    ending.isEmpty()
+                            ? NO_LITERALS
+                            : ending.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        // breadth-first computation of failure and dictionary links
+        int[] fail = new int[numStates];
+        int[] dictionary = new int[numStates];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int t : targets[0]) {
+            queue.add(t);
+        }
+        while (!queue.isEmpty()) {
+            int s = queue.poll();
+            for (int i = 0; i < labels[s].length; i++) {
+                char c = labels[s][i];
+                int t = targets[s][i];
+                int f = fail[s];
+                int next;
+                while ((next = transition(labels, targets, f, c)) == -1 && f != 0) {
+                    f = fail[f];
+                }
+                fail[t] = (next == -1) ? 0 : next;
+                dictionary[t] =
+                        literalsPerState[fail[t]].length > 0 ? fail[t] : dictionary[fail[t]];
+                queue.add(t);
+            }
+        }
+
+        return new LiteralMatcher(labels, targets, fail, literalsPerState, dictionary);
+    }
+
+    private static int transition(char[][] labels, int[][] targets, int state, char c) {
+        char[] l = labels[state];
+        int lo = 0;
+        int hi = l.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (l[mid] < c) {
+                lo = mid + 1;
+            } else if (l[mid] > c) {
+                hi = mid - 1;
+            } else {
+                return targets[state][mid];
+            }
+        }
+        return -1;
+    }
+
+    /** @return the state reached from <code>state</code> after reading <code>c</code> */
+    int next(int state, char c) {
+        int next;
+        while ((next = transition(labels, targets, state, c)) == -1 && state != 0) {
+            state = fail[state];
+        }
+        return (next == -1) ? 0 : next;
+    }
+
+    /** @return the literals ending in <code>state</code> (not including shorter suffixes) */
+    int[] literals(int state) {
+        return literals[state];
+    }
+
+    /**
+     * @return the next state holding literals which are suffixes of the literals of <code>state
+     *     </code>, or 0 if there is none
+     */
+    int dictionaryLink(int state) {
+        return dictionary[state];
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commoncrawl.stormcrawler.filter;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Locale;
+
+/**
+ * Lightweight view of a URL string: the offsets of scheme, host, port, path, query and fragment are
+ * determined in a single pass, the parts are only copied into strings when requested (and then
+ * reused by all callers). The parts are split in the same way as by {@link java.net.URL}, e.g.,
+ * {@link #getPath()} and {@link #getFile()} equal {@link URL#getPath()} and {@link URL#getFile()}.
+ *
+ * <p>URLs of the schemes <code>http</code>, <code>https</code>, <code>ftp</code> and <code>file
+ * </code> are parsed without creating a {@link URL}. For any other scheme the URL must also be
+ * accepted by {@link URL#URL(String)}, so that the set of valid URLs is the same as when filters
+ * parse the URL themselves. Same as {@link URL#URL(String)}, leading and trailing whitespace and a
+ * leading <code>url:</code> are ignored. Unlike {@link URL}, which has no host if the authority
+ * contains more than one <code>@</code>, the host is the part after the last <code>@</code>, the
+ * host browsers and HTTP clients connect to.
+ */
+public final class ParsedURL {
+
+    /** the string passed to {@link #parse(String)} */
+    private final String original;
+
+    /** the URL without surrounding whitespace and <code>url:</code> prefix */
+    private final String url;
+
+    private final int schemeEnd;
+    private final int hostStart;
+    private final int hostEnd;
+    private final int port;
+    private final int pathStart;
+    /** start of the query (position of the <code>?</code>), -1 if there is no query */
+    private final int queryStart;
+    /** start of the fragment (position of the <code>#</code>) or length of the URL */
+    private final int fragmentStart;
+
+    private String host;
+    private String path;
+    private String file;
+    private URL javaURL;
+
+    private ParsedURL(
+            String original,
+            String url,
+            int schemeEnd,
+            int hostStart,
+            int hostEnd,
+            int port,
+            int pathStart,
+            int queryStart,
+            int fragmentStart) {
+        this.original = original;
+        this.url = url;
+        this.schemeEnd = schemeEnd;
+        this.hostStart = hostStart;
+        this.hostEnd = hostEnd;
+        this.port = port;
+        this.pathStart = pathStart;
+        this.queryStart = queryStart;
+        this.fragmentStart = fragmentStart;
+    }
+
+    /** @return the parsed URL or null if the string is not a valid URL */
+    public static ParsedURL parse(String original) {
+        String url = strip(original);
+        int schemeEnd = url.indexOf(':');
+        if (schemeEnd < 1 || !isScheme(url, schemeEnd)) {
+            return null;
+        }
+        if (!isParsedNatively(url, schemeEnd)) {
+            try {
+                new URL(url);
+            } catch (MalformedURLException e) {
+                return null;
+            }
+        }
+
+        int fragmentStart = url.indexOf('#', schemeEnd);
+        if (fragmentStart == -1) {
+            fragmentStart = url.length();
+        }
+
+        int hostStart = schemeEnd + 1;
+        int hostEnd = hostStart;
+        int pathStart = hostStart;
+        int port = -1;
+        if (url.startsWith("//", hostStart)) {
+            hostStart += 2;
+            int authorityEnd = hostStart;
+            while (authorityEnd < fragmentStart) {
+                char c = url.charAt(authorityEnd);
+                if (c == '/' || c == '?') {
+                    break;
+                }
+                authorityEnd++;
+            }
+            int userInfoEnd = url.lastIndexOf('@', authorityEnd - 1);
+            if (userInfoEnd >= hostStart) {
+                hostStart = userInfoEnd + 1;
+            }
+            hostEnd = authorityEnd;
+            int portStart = -1;
+            if (hostStart < authorityEnd && url.charAt(hostStart) == '[') {
+                // IPv6 address
+                int close = url.indexOf(']', hostStart);
+                if (close == -1 || close >= authorityEnd) {
+                    return null;
+                }
+                hostEnd = close + 1;
+                if (hostEnd < authorityEnd) {
+                    if (url.charAt(hostEnd) != ':') {
+                        return null;
+                    }
+                    portStart = hostEnd + 1;
+                }
+            } else {
+                int colon = url.indexOf(':', hostStart);
+                if (colon != -1 && colon < authorityEnd) {
+                    hostEnd = colon;
+                    portStart = colon + 1;
+                }
+            }
+            if (portStart != -1 && portStart < authorityEnd) {
+                port = 0;
+                for (int i = portStart; i < authorityEnd; i++) {
+                    char c = url.charAt(i);
+                    if (c < '0' || c > '9' || port > Integer.MAX_VALUE / 10) {
+                        return null;
+                    }
+                    port = port * 10 + (c - '0');
+                }
+            }
+            pathStart = authorityEnd;
+        }
+
+        int queryStart = url.indexOf('?', pathStart);
+        if (queryStart >= fragmentStart) {
+            queryStart = -1;
+        }
+
+        return new ParsedURL(
+                original,
+                url,
+                schemeEnd,
+                hostStart,
+                hostEnd,
+                port,
+                pathStart,
+                queryStart,
+                fragmentStart);
+    }
+
+    /**
+     * Remove leading and trailing whitespace (including control characters) and a leading <code>
+     * url:</code> (case-insensitive), the same way as done by {@link URL#URL(String)}
+     */
+    private static String strip(String url) {
+        int start = 0;
+        int end = url.length();
+        while (end > 0 && url.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        while (start < end && url.charAt(start) <= ' ') {
+            start++;
+        }
+        if (url.regionMatches(true, start, "url:", 0, 4)) {
+            start += 4;
+        }
+        if (start == 0 && end == url.length()) {
+            return url;
+        }
+        return url.substring(start, end);
+    }
+
+    private static boolean isScheme(String url, int end) {
+        if (!Character.isLetter(url.charAt(0))) {
+            return false;
+        }
+        for (int i = 1; i < end; i++) {
+            char c = url.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '+' && c != '-' && c != '.') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isParsedNatively(String url, int schemeEnd) {
+        switch (schemeEnd) {
+            case 3:
+                return url.regionMatches(true, 0, "ftp", 0, 3);
+            case 4:
+                return url.regionMatches(true, 0, "http", 0, 4)
+                        || url.regionMatches(true, 0, "file", 0, 4);
+            case 5:
+                return url.regionMatches(true, 0, "https", 0, 5);
+            default:
+                return false;
+        }
+    }
+
+    /** @return the scheme in lower case */
+    public String getScheme() {
+        return url.substring(0, schemeEnd).toLowerCase(Locale.ROOT);
+    }
+
+    /** @return the host name, an empty string if the URL has no host */
+    public String getHost() {
+        if (host == null) {
+            host = url.substring(hostStart, hostEnd);
+        }
+        return host;
+    }
+
+    /** @return the port or -1 if not specified */
+    public int getPort() {
+        return port;
+    }
+
+    /** @return the path without query, an empty string if the URL has no path */
+    public String getPath() {
+        if (path == null) {
+            path = url.substring(pathStart, (queryStart != -1) ? queryStart : fragmentStart);
+        }
+        return path;
+    }
+
+    /** @return the query without the leading <code>?</code>, null if there is no query */
+    public String getQuery() {
+        return (queryStart == -1) ? null : url.substring(queryStart + 1, fragmentStart);
+    }
+
+    /** @return path and query */
+    public String getFile() {
+        if (file == null) {
+            file = url.substring(pathStart, fragmentStart);
+        }
+        return file;
+    }
+
+    /** @return the fragment without the leading <code>#</code>, null if there is no fragment */
+    public String getRef() {
+        return (fragmentStart == url.length()) ? null : url.substring(fragmentStart + 1);
+    }
+
+    /**
+     * @return the URL as {@link java.net.URL}, created on demand for code which requires it, null
+     *     if it fails to parse
+     */
+    public URL toURL() {
+        if (javaURL == null) {
+            try {
+                javaURL = new URL(url);
+            } catch (MalformedURLException e) {
+                return null;
+            }
+        }
+        return javaURL;
+    }
+
+    /**
+     * @return the URL string (same instance as parsed, including surrounding whitespace or a
+     *     <code>url:</code> prefix)
+     */
+    @Override
+    public String toString() {
+        return original;
+    }
+}
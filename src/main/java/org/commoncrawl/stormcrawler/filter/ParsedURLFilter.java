@@ -0,0 +1,34 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commoncrawl.stormcrawler.filter;
+
+import java.net.URL;
+import org.apache.stormcrawler.Metadata;
+
+/**
+ * URL filter or normalizer operating on a {@link ParsedURL}, so that the {@link FusedURLFilter} can
+ * pass the URL parsed once to all filters of the chain implementing this interface.
+ */
+public interface ParsedURLFilter {
+
+    /**
+     * @param url the URL to be filtered
+     * @return the URL string of the view (the same instance) if the URL is accepted and not
+     *     modified, a modified URL or null if the URL is rejected
+     */
+    String filter(URL sourceUrl, Metadata sourceMetadata, ParsedURL url);
+}
@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commoncrawl.stormcrawler.filter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import org.apache.commons.lang3.StringUtils;
+import org.commoncrawl.stormcrawler.filter.FastURLFilter.Rule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Changes to the rules of the {@link FastURLFilter} relative to the base rule file. The delta file
+ * uses the same format as the rule file, rules are added to the rules of the host or domain defined
+ * in the base file. In addition, rules are removed if prefixed with <code>-</code>, and all rules
+ * of a host or domain are removed if the block header is prefixed with <code>-</code>:
+ *
+ * <pre>
+ * # add a rule to example.org
+ * Domain example.org
+ *   DenyPath /print/
+ *
+ * # replace the rules of www.example.com
+ * -Host www.example.com
+ *   DenyPath /tag/
+ *
+ * # remove a single rule
+ * Domain example.net
+ *   -DenyPath /verbotten
+ * </pre>
+ *
+ * A delta always refers to the base rule file, so that it can be applied again whenever the base is
+ * reloaded. Applying a delta only touches the hosts and domains listed in the delta, it is meant to
+ * ship small changes between two (expensive) full reloads or compilations of the base file.
+ */
+final class RuleDelta {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    private static final Rule CLEAR = new Rule();
+
+    /** single change: add or remove a rule, or remove all rules ({@link #CLEAR}) */
+    private static final class Change {
+        final boolean remove;
+        final Rule rule;
+
+        Change(boolean remove, Rule rule) {
+            this.remove = remove;
+            this.rule = rule;
+        }
+    }
+
+    private final Map<String, List<Change>> hostChanges = new LinkedHashMap<>();
+    private final Map<String, List<Change>> domainChanges = new LinkedHashMap<>();
+
+    private RuleDelta() {}
+
+    int size() {
+        return hostChanges.size() + domainChanges.size();
+    }
+
+    /** @param filter accepts the names of hosts and domains the changes are loaded for */
+    static RuleDelta read(Reader deltaReader, Predicate<String> filter) throws IOException {
+        RuleDelta delta = new RuleDelta();
+        BufferedReader reader = new BufferedReader(deltaReader);
+
+        List<Change> current = null;
+        int lineno = 0;
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineno++;
+            line = line.trim();
+
+            if (line.indexOf("#") != -1) {
+                // strip comments
+                line = line.substring(0, line.indexOf("#")).trim();
+            }
+
+            if (StringUtils.isBlank(line)) {
+                continue;
+            }
+
+            boolean remove = line.startsWith("-");
+            if (remove) {
+                line = line.substring(1).trim();
+            }
+
+            if (line.startsWith("Host") || line.startsWith("Domain")) {
+                Map<String, List<Change>> changes =
+                        line.startsWith("Host") ? delta.hostChanges : delta.domainChanges;
+                String name = line.split("\\s+")[1];
+                if (!filter.test(name)) {
+                    current = null;
+                    continue;
+                }
+                current = changes.computeIfAbsent(name, k -> new ArrayList<>());
+                if (remove) {
+                    current.add(new Change(true, CLEAR));
+                }
+            } else if (current != null) {
+                Rule rule = FastURLFilter.parseRule(line, lineno);
+                if (rule != null) {
+                    current.add(new Change(remove, rule));
+                }
+            }
+        }
+
+        return delta;
+    }
+
+    /**
+     * Apply the delta to the base rules
+     *
+     * @return overlay holding the resulting rules of all hosts and domains listed in the delta
+     */
+    DomainTrie applyTo(DomainTrie base) {
+        DomainTrie.Builder overlay = DomainTrie.builder();
+        for (Map.Entry<String, List<Change>> e : hostChanges.entrySet()) {
+            int node = base.lookup(e.getKey());
+            RuleGroup rules = (node == -1) ? null : base.hostRules(node);
+            overlay.setHostRules(e.getKey(), apply(rules, e.getValue()));
+        }
+        for (Map.Entry<String, List<Change>> e : domainChanges.entrySet()) {
+            int node = base.lookup(e.getKey());
+            RuleGroup rules = (node == -1) ? null : base.domainRules(node);
+            overlay.setDomainRules(e.getKey(), apply(rules, e.getValue()));
+        }
+        return overlay.build();
+    }
+
+    private static Set<Rule> apply(RuleGroup baseRules, List<Change> changes) {
+        Set<Rule> rules = new LinkedHashSet<>();
+        if (baseRules != null) {
+            for (int i = 0; i < baseRules.size(); i++) {
+                rules.add(baseRules.get(i));
+            }
+        }
+        for (Change change : changes) {
+            if (change.rule == CLEAR) {
+                rules.clear();
+            } else if (change.remove) {
+                if (!rules.removeIf(r -> sameRule(r, change.rule))) {
+                    LOG.debug("Rule to be removed not found: {}", change.rule);
+                }
+            } else {
+                rules.add(change.rule);
+            }
+        }
+        return rules;
+    }
+
+    private static boolean sameRule(Rule a, Rule b) {
+        return a.getClass() == b.getClass() && a.toString().equals(b.toString());
+    }
+}
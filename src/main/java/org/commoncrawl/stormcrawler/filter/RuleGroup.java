@@ -0,0 +1,473 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commoncrawl.stormcrawler.filter;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+import org.commoncrawl.stormcrawler.filter.FastURLFilter.DenyAllRule;
+import org.commoncrawl.stormcrawler.filter.FastURLFilter.DenyPathQueryRule;
+import org.commoncrawl.stormcrawler.filter.FastURLFilter.DenyPathRule;
+import org.commoncrawl.stormcrawler.filter.FastURLFilter.Rule;
+
+/**
+ * All rules defined for a single host or domain, compiled so that the URL path (resp. path and
+ * query) is scanned once by a single Aho-Corasick automaton, independent of the number of rules:
+ *
+ * <ul>
+ *   <li>rules which are plain literals (e.g. <code>DenyPath /verbotten</code> or <code>DenyPath
+ *       \.jpg</code>) match as soon as the literal is found
+ *   <li>for regular expressions a literal string required by every match is extracted (e.g.
+ *       <code>/archive/</code> from <code>^/archive/\d{4}/</code>). The expression is only
+ *       evaluated if the automaton has found the required literal in the URL.
+ *   <li>only regular expressions without any required literal are evaluated unconditionally
+ * </ul>
+ *
+ * Rules are identified by the position of their definition, so that the rule responsible for a
+ * rejection can be reported (see {@link RuleStats}). Regular expressions without a required literal
+ * are evaluated in the order of their definition, unless reordered by their hit rate (see {@link
+ * #reorder()}).
+ */
+final class RuleGroup {
+
+    private static final String META_CHARACTERS = ".^$|?*+()[]{}";
+
+    /** host or domain the rules are defined for, used as metrics scope */
+    private final String scope;
+
+    private final Rule[] rules;
+
+    /** created on demand if collecting statistics is enabled */
+    private volatile RuleStats stats;
+
+    /** index of a catch-all rule, or -1 */
+    private final int denyAll;
+
+    private final Part path;
+    private final Part pathQuery;
+
+    /** rules of unknown type, evaluated one by one */
+    private final int[] others;
+
+    RuleGroup(String scope, Collection<Rule> definedRules) {
+        this.scope = scope;
+        rules = definedRules.toArray(new Rule[0]);
+
+        int catchAll = -1;
+        List<Integer> pathRules = new ArrayList<>();
+        List<Integer> pathQueryRules = new ArrayList<>();
+        List<Integer> otherRules = new ArrayList<>();
+        for (int i = 0; i < rules.length; i++) {
+            Rule rule = rules[i];
+            if (rule instanceof DenyAllRule) {
+                if (catchAll == -1) {
+                    catchAll = i;
+                }
+            } else if (rule instanceof DenyPathRule) {
+                pathRules.add(i);
+            } else if (rule instanceof DenyPathQueryRule) {
+                pathQueryRules.add(i);
+            } else {
+                otherRules.add(i);
+            }
+        }
+
+        denyAll = catchAll;
+        path = Part.compile(rules, pathRules);
+        pathQuery = Part.compile(rules, pathQueryRules);
+        others = otherRules.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /** @return the index of a rule matching the URL or -1 if no rule matches */
+    int find(ParsedURL url) {
+        return find(url, null);
+    }
+
+    private int find(ParsedURL url, RuleStats stats) {
+        if (denyAll != -1) {
+            return denyAll;
+        }
+        int match;
+        if (path != null && (match = path.find(url.getPath(), stats)) != -1) {
+            return match;
+        }
+        if (pathQuery != null && (match = pathQuery.find(url.getFile(), stats)) != -1) {
+            return match;
+        }
+        if (others.length > 0) {
+            URL u = url.toURL();
+            for (int i : others) {
+                if (u != null && rules[i].match(u)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    boolean matches(ParsedURL url) {
+        if (!RuleStats.isEnabled()) {
+            return find(url, null) != -1;
+        }
+        RuleStats s = getStats();
+        long start = System.nanoTime();
+        int match = find(url, s);
+        s.recordEvaluation(System.nanoTime() - start);
+        if (match != -1) {
+            s.recordHit(match);
+        }
+        return match != -1;
+    }
+
+    private RuleStats getStats() {
+        RuleStats s = stats;
+        if (s == null) {
+            synchronized (this) {
+                if (stats == null) {
+                    stats = new RuleStats(this, scope);
+                }
+                s = stats;
+            }
+        }
+        return s;
+    }
+
+    /** @return whether there are multiple regular expressions evaluated one after the other */
+    boolean isReorderable() {
+        return (path != null && path.sequential.rules.length > 1)
+                || (pathQuery != null && pathQuery.sequential.rules.length > 1);
+    }
+
+    /**
+     * Order the regular expressions evaluated one after the other by the number of their recent
+     * hits, so that frequently matching expressions are evaluated first.
+     */
+    void reorder() {
+        RuleStats s = stats;
+        if (s == null) {
+            return;
+        }
+        if (path != null) {
+            path.reorder(s);
+        }
+        if (pathQuery != null) {
+            pathQuery.reorder(s);
+        }
+        s.decayRecentHits();
+    }
+
+    int size() {
+        return rules.length;
+    }
+
+    Rule get(int index) {
+        return rules[index];
+    }
+
+    /**
+     * Return the literal string matched by a regular expression if it contains no meta-characters
+     * (except escaped non-alphanumeric characters), otherwise null
+     */
+    static String getLiteral(String regex) {
+        StringBuilder literal = new StringBuilder(regex.length());
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (++i == regex.length()) {
+                    return null;
+                }
+                c = regex.charAt(i);
+                if (Character.isLetterOrDigit(c)) {
+                    // character class, back-reference, quoting, etc.
+                    return null;
+                }
+            } else if (META_CHARACTERS.indexOf(c) != -1) {
+                return null;
+            }
+            literal.append(c);
+        }
+        if (literal.length() == 0) {
+            return null;
+        }
+        return literal.toString();
+    }
+
+    /**
+     * Extract the longest literal string which is part of every match of a regular expression. Only
+     * the top-level sequence of the expression is considered, groups and character classes are
+     * skipped.
+     *
+     * @return the required literal or null if none (at least two characters long) is found
+     */
+    static String getRequiredLiteral(String regex) {
+        String longest = "";
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+        int length = regex.length();
+        for (int i = 0; i < length; i++) {
+            char c = regex.charAt(i);
+            Character literal = null;
+            if (c == '\\') {
+                if (i + 1 == length) {
+                    return null;
+                }
+                char n = regex.charAt(++i);
+                if (n == 'Q') {
+                    return null;
+                }
+                if (Character.isDigit(n) || "xuckpPN".indexOf(n) != -1) {
+                    // escape followed by arguments (octal, hex or control character,
+                    // back-reference, named group, property) which are not literals
+                    return null;
+                }
+                if (depth == 0 && !Character.isLetterOrDigit(n)) {
+                    literal = n;
+                }
+            } else if (c == '[') {
+                // skip character class, including nested classes
+                int nested = 0;
+                for (i++; i < length; i++) {
+                    char d = regex.charAt(i);
+                    if (d == '\\') {
+                        i++;
+                    } else if (d == '[') {
+                        nested++;
+                    } else if (d == ']' && nested-- == 0) {
+                        break;
+                    }
+                }
+            } else if (c == '(') {
+                if (regex.startsWith("(?", i) && hasInlineFlags(regex, i + 2)) {
+                    // case-insensitive or comments mode, etc.
+                    return null;
+                }
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|') {
+                if (depth == 0) {
+                    return null;
+                }
+            } else if (c == '{' && depth == 0) {
+                // skip quantifier
+                int end = regex.indexOf('}', i);
+                if (end == -1) {
+                    return null;
+                }
+                i = end;
+            } else if (depth == 0 && META_CHARACTERS.indexOf(c) == -1) {
+                literal = c;
+            }
+
+            if (literal == null) {
+                longest = longer(longest, run);
+                continue;
+            }
+            char quantifier = (i + 1 < length) ? regex.charAt(i + 1) : 0;
+            if (quantifier == '?' || quantifier == '*' || quantifier == '{') {
+                // optional character
+                longest = longer(longest, run);
+            } else if (quantifier == '+') {
+                run.append(literal.charValue());
+                longest = longer(longest, run);
+            } else {
+                run.append(literal.charValue());
+            }
+        }
+        longest = longer(longest, run);
+
+        if (depth != 0 || longest.length() < 2) {
+            return null;
+        }
+        return longest;
+    }
+
+    private static String longer(String longest, StringBuilder run) {
+        if (run.length() > longest.length()) {
+            longest = run.toString();
+        }
+        run.setLength(0);
+        return longest;
+    }
+
+    private static boolean hasInlineFlags(String regex, int start) {
+        for (int i = start; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if ("ixuUcdms-".indexOf(c) == -1) {
+                return false;
+            } else if ("ixuUc".indexOf(c) != -1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Rules applied to the same part of the URL */
+    private static final class Part {
+
+        /** literals of plain literal rules and literals required by regular expressions */
+        private LiteralMatcher literals;
+
+        /** rule index for every literal */
+        private int[] literalRules;
+
+        /** regular expression to verify a required literal, null for plain literal rules */
+        private Pattern[] literalPatterns;
+
+        /** regular expressions without a required literal, evaluated one by one */
+        private volatile Sequential sequential;
+
+        static Part compile(Rule[] rules, List<Integer> indexes) {
+            if (indexes.isEmpty()) {
+                return null;
+            }
+            Part part = new Part();
+
+            List<String> literalStrings = new ArrayList<>();
+            List<Integer> literalIndexes = new ArrayList<>();
+            List<Pattern> literalPatterns = new ArrayList<>();
+            List<Integer> unfilteredIndexes = new ArrayList<>();
+            for (int i : indexes) {
+                Pattern pattern = rules[i].pattern;
+                String literal = getLiteral(pattern.pattern());
+                if (literal != null) {
+                    literalStrings.add(literal);
+                    literalIndexes.add(i);
+                    literalPatterns.add(null);
+                    continue;
+                }
+                literal = getRequiredLiteral(pattern.pattern());
+                if (literal != null) {
+                    literalStrings.add(literal);
+                    literalIndexes.add(i);
+                    literalPatterns.add(pattern);
+                } else {
+                    unfilteredIndexes.add(i);
+                }
+            }
+
+            if (!literalStrings.isEmpty()) {
+                part.literals = LiteralMatcher.compile(literalStrings);
+            }
+            part.literalRules = toArray(literalIndexes);
+            part.literalPatterns = literalPatterns.toArray(new Pattern[0]);
+
+            part.sequential = new Sequential(rules, toArray(unfilteredIndexes));
+
+            return part;
+        }
+
+        int find(String haystack, RuleStats stats) {
+            if (literals != null) {
+                // regular expressions already evaluated
+                long[] verified = null;
+                int state = 0;
+                for (int i = 0; i < haystack.length(); i++) {
+                    state = literals.next(state, haystack.charAt(i));
+                    for (int s = state; s != 0; s = literals.dictionaryLink(s)) {
+                        for (int l : literals.literals(s)) {
+                            Pattern pattern = literalPatterns[l];
+                            if (pattern == null) {
+                                return literalRules[l];
+                            }
+                            if (verified == null) {
+                                verified = new long[(literalRules.length + 63) >>> 6];
+                            } else if ((verified[l >>> 6] & (1L << l)) != 0) {
+                                continue;
+                            }
+                            verified[l >>> 6] |= 1L << l;
+                            if (find(pattern, haystack, literalRules[l], stats)) {
+                                return literalRules[l];
+                            }
+                        }
+                    }
+                }
+            }
+            final Sequential seq = sequential;
+            for (int j = 0; j < seq.rules.length; j++) {
+                if (find(seq.patterns[j], haystack, seq.rules[j], stats)) {
+                    return seq.rules[j];
+                }
+            }
+            return -1;
+        }
+
+        private static boolean find(Pattern pattern, String haystack, int rule, RuleStats stats) {
+            if (stats == null) {
+                return pattern.matcher(haystack).find();
+            }
+            long start = System.nanoTime();
+            boolean found = pattern.matcher(haystack).find();
+            stats.recordRuleTime(rule, System.nanoTime() - start);
+            return found;
+        }
+
+        void reorder(RuleStats stats) {
+            final Sequential seq = sequential;
+            if (seq.rules.length < 2) {
+                return;
+            }
+            // stable sort, rules without hits keep the order of their definition
+            int[] order =
+                    Arrays.stream(seq.rules)
+                            .boxed()
+                            .sorted(
+                                    Comparator.comparingLong((Integer r) -> stats.getRecentHits(r))
+                                            .reversed())
+                            .mapToInt(Integer::intValue)
+                            .toArray();
+            if (!Arrays.equals(order, seq.rules)) {
+                sequential = new Sequential(seq, order);
+            }
+        }
+
+        /** Immutable sequence of regular expressions, replaced as a whole when reordered */
+        private static final class Sequential {
+            final int[] rules;
+            final Pattern[] patterns;
+
+            Sequential(Rule[] definedRules, int[] rules) {
+                this.rules = rules;
+                this.patterns = new Pattern[rules.length];
+                for (int j = 0; j < rules.length; j++) {
+                    patterns[j] = definedRules[rules[j]].pattern;
+                }
+            }
+
+            /** Copy with rules in a different order */
+            Sequential(Sequential previous, int[] rules) {
+                this.rules = rules;
+                this.patterns = new Pattern[rules.length];
+                for (int j = 0; j < rules.length; j++) {
+                    for (int k = 0; k < previous.rules.length; k++) {
+                        if (previous.rules[k] == rules[j]) {
+                            patterns[j] = previous.patterns[k];
+                        }
+                    }
+                }
+            }
+        }
+
+        private static int[] toArray(List<Integer> list) {
+            return list.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commoncrawl.stormcrawler.filter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters of a {@link RuleGroup}: hits and evaluation time per rule, number of evaluations and
+ * evaluation time of the group. Counters are only collected if enabled (see {@link
+ * #setEnabled(boolean)}) and are created when a group is evaluated first.
+ *
+ * <p>Counters which have changed are queued and collected JVM-wide by {@link #drainTo(Map)}, so
+ * that the cost of reporting metrics depends on the number of hosts and domains seen in the last
+ * period, not on the size of the rule file.
+ */
+final class RuleStats {
+
+    private static volatile boolean enabled = false;
+
+    /** counters changed since they were collected last */
+    private static final ConcurrentLinkedQueue<RuleStats> CHANGED = new ConcurrentLinkedQueue<>();
+
+    /** groups which may benefit from reordering, weakly referenced to not retain outdated rules */
+    private static final Set<RuleGroup> REORDERABLE =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    private final String scope;
+
+    private final AtomicLongArray hits;
+    private final AtomicLongArray nanos;
+
+    /** hits since the rules were ordered last, halved by every reordering */
+    private final AtomicLongArray recentHits;
+
+    private final AtomicLong evaluations = new AtomicLong();
+    private final AtomicLong evaluationNanos = new AtomicLong();
+
+    private final AtomicBoolean changed = new AtomicBoolean();
+
+    RuleStats(RuleGroup group, String scope) {
+        this.scope = scope;
+        int size = group.size();
+        hits = new AtomicLongArray(size);
+        nanos = new AtomicLongArray(size);
+        recentHits = new AtomicLongArray(size);
+        if (group.isReorderable()) {
+            REORDERABLE.add(group);
+        }
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    void recordHit(int rule) {
+        hits.incrementAndGet(rule);
+        recentHits.incrementAndGet(rule);
+        markChanged();
+    }
+
+    void recordRuleTime(int rule, long time) {
+        nanos.addAndGet(rule, time);
+    }
+
+    void recordEvaluation(long time) {
+        evaluations.incrementAndGet();
+        evaluationNanos.addAndGet(time);
+        markChanged();
+    }
+
+    long getRecentHits(int rule) {
+        return recentHits.get(rule);
+    }
+
+    /** Halve the recent hits so that the order adapts to changes of the hit rates */
+    void decayRecentHits() {
+        for (int i = 0; i < recentHits.length(); i++) {
+            recentHits.getAndUpdate(i, v -> v / 2);
+        }
+    }
+
+    private void markChanged() {
+        if (!changed.get() && changed.compareAndSet(false, true)) {
+            CHANGED.add(this);
+        }
+    }
+
+    /**
+     * Collect and reset the counters changed since the last call. Keys are composed of the scope
+     * (<code>host:</code> or <code>domain:</code> followed by the name, or <code>global</code>) and
+     * the counter name, counters of single rules include the position of the rule within the block
+     * of the rule file, e.g. <code>domain:example.com#2.hits</code>. Rules which do not appear over
+     * a longer period never matched a URL.
+     */
+    static void drainTo(Map<String, Long> values) {
+        RuleStats stats;
+        while ((stats = CHANGED.poll()) != null) {
+            // reset the flag first, concurrent updates are queued again
+            stats.changed.set(false);
+            stats.addTo(values);
+        }
+    }
+
+    private void addTo(Map<String, Long> values) {
+        values.merge(scope + ".evaluations", evaluations.getAndSet(0), Long::sum);
+        values.merge(scope + ".time_us", evaluationNanos.getAndSet(0) / 1000, Long::sum);
+        for (int i = 0; i < hits.length(); i++) {
+            long h = hits.getAndSet(i, 0);
+            long t = nanos.getAndSet(i, 0);
+            if (h > 0) {
+                values.merge(scope + "#" + i + ".hits", h, Long::sum);
+            }
+            if (t > 0) {
+                values.merge(scope + "#" + i + ".time_us", t / 1000, Long::sum);
+            }
+        }
+    }
+
+    /** Reorder the rules of all groups by their recent hits */
+    static void reorderAll() {
+        List<RuleGroup> groups;
+        synchronized (REORDERABLE) {
+            groups = new ArrayList<>(REORDERABLE);
+        }
+        for (RuleGroup group : groups) {
+            group.reorder();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commoncrawl.stormcrawler.filter;
+
+/**
+ * Immutable snapshot of the rules used by the {@link FastURLFilter}: the rules of the base file
+ * and, optionally, an overlay holding the rules of all hosts and domains modified by a delta file
+ * (see {@link RuleDelta}). Rules defined in the overlay replace the rules of the same host or
+ * domain in the base.
+ */
+final class Rules {
+
+    static final Rules EMPTY = new Rules(DomainTrie.EMPTY, null);
+
+    final DomainTrie base;
+
+    /** rules of hosts and domains modified by a delta, null if there is no delta */
+    final DomainTrie overlay;
+
+    Rules(DomainTrie base, DomainTrie overlay) {
+        this.base = base;
+        this.overlay = overlay;
+    }
+
+    /**
+     * Check host rules, then domain rules from longer to shorter domain names: subdomains, domain,
+     * top-level domain and finally "global" rules defined for <code>Domain .</code>
+     *
+     * @return whether one of the rules applicable for the host name matches the URL
+     */
+    boolean rejects(String hostname, ParsedURL u) {
+        int node = base.find(hostname);
+        int overlayNode = (overlay == null) ? -1 : overlay.find(hostname);
+
+        // first check for host-specific rules
+        RuleGroup hostRules = null;
+        if (overlayNode != -1 && overlay.isHost(overlayNode, hostname)) {
+            hostRules = overlay.hostRules(overlayNode);
+        }
+        if (hostRules == null && base.isHost(node, hostname)) {
+            hostRules = base.hostRules(node);
+        }
+        if (matches(hostRules, u)) {
+            return true;
+        }
+
+        // both chains of nodes are suffixes of the host name: equal length means equal name
+        for (; node != -1; node = base.parent(node)) {
+            int length = base.nameLength(node);
+            RuleGroup domainRules = null;
+            while (overlayNode != -1 && overlay.nameLength(overlayNode) >= length) {
+                domainRules = overlay.domainRules(overlayNode);
+                if (overlay.nameLength(overlayNode) == length) {
+                    overlayNode = overlay.parent(overlayNode);
+                    break;
+                }
+                // domain only defined in the overlay
+                if (matches(domainRules, u)) {
+                    return true;
+                }
+                domainRules = null;
+                overlayNode = overlay.parent(overlayNode);
+            }
+            if (domainRules == null) {
+                domainRules = base.domainRules(node);
+            }
+            if (matches(domainRules, u)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matches(RuleGroup rules, ParsedURL u) {
+        return rules != null && rules.matches(u);
+    }
+
+    int getNumHostRules() {
+        return base.getNumHostRules();
+    }
+
+    int getNumDomainRules() {
+        return base.getNumDomainRules();
+    }
+}
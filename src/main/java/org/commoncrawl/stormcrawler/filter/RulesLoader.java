@@ -0,0 +1,285 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commoncrawl.stormcrawler.filter;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.invoke.MethodHandles;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+
+/**
+ * Loads the rules of the {@link FastURLFilter} from the base rule file (or binary index) and an
+ * optional delta file (see {@link RuleDelta}), and publishes them as immutable {@link Rules}
+ * snapshot.
+ *
+ * <p>Rule files are read from S3 (<code>s3://bucket/key</code>), from the local file system
+ * (absolute paths or <code>file:</code> URIs) or from the class path. A file is only read again if
+ * its version has changed: the ETag of S3 objects, modification time and size of local files and
+ * class path resources. If only the delta has changed, it is applied to the already loaded base
+ * rules.
+ *
+ * <p>Loading is synchronized, the published rules can be read concurrently at any time.
+ */
+final class RulesLoader {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    private final String resourceFile;
+    private final String deltaFile;
+
+    /** shard of the rules to be loaded, null to load all rules */
+    private final HostShards shards;
+
+    /** number of rule snapshots published by all loaders of the JVM */
+    private static final AtomicLong PUBLISHED = new AtomicLong();
+
+    private volatile Rules rules = Rules.EMPTY;
+
+    /** base rules and delta currently in use, guarded by this */
+    private DomainTrie base = DomainTrie.EMPTY;
+
+    private RuleDelta delta;
+
+    /** versions of the files the rules are loaded from, null if unknown */
+    private String resourceVersion;
+
+    private String deltaVersion;
+
+    /** created on demand and reused for all reloads */
+    private S3Client s3client;
+
+    /** released once the first (successful or failed) attempt to load the rules is finished */
+    private final CountDownLatch loaded = new CountDownLatch(1);
+
+    /**
+     * @param resourceFile base rule file or binary index
+     * @param deltaFile optional delta file, may be null
+     * @param shards shard of the rules to be loaded, null to load all rules
+     */
+    RulesLoader(String resourceFile, String deltaFile, HostShards shards) {
+        this.resourceFile = resourceFile;
+        this.deltaFile = deltaFile;
+        this.shards = shards;
+    }
+
+    private Predicate<String> getFilter() {
+        return (shards != null) ? shards : name -> true;
+    }
+
+    Rules getRules() {
+        return rules;
+    }
+
+    static long getPublishedCount() {
+        return PUBLISHED.get();
+    }
+
+    String getResourceFile() {
+        return resourceFile;
+    }
+
+    /** (Re)load the base rules and the delta if one of them has changed */
+    synchronized void load() throws Exception {
+        try {
+            loadChanged();
+        } finally {
+            loaded.countDown();
+        }
+    }
+
+    private void loadChanged() throws Exception {
+        boolean changed = false;
+
+        String version = getVersion(resourceFile);
+        if (version != null && version.equals(resourceVersion)) {
+            LOG.info("Unchanged version of {} - skipping reload", resourceFile);
+        } else {
+            long start = System.currentTimeMillis();
+            if (resourceFile.endsWith(FastURLFilter.INDEX_SUFFIX)) {
+                // the index is mapped as a whole, rules of other shards are never compiled
+                base = DomainTrie.map(toPath(resourceFile));
+            } else {
+                try (Reader reader = open(resourceFile)) {
+                    base = FastURLFilter.readRules(reader, getFilter()).build();
+                }
+            }
+            LOG.info(
+                    "Loaded {} host rules and {} domain rules in {} msec from {}{}",
+                    base.getNumHostRules(),
+                    base.getNumDomainRules(),
+                    (System.currentTimeMillis() - start),
+                    resourceFile,
+                    (shards != null) ? " (" + shards + ")" : "");
+            // remember the version only once the rules are loaded successfully
+            resourceVersion = version;
+            changed = true;
+        }
+
+        if (deltaFile != null) {
+            version = getVersion(deltaFile);
+            if (version == null || !version.equals(deltaVersion)) {
+                try (Reader reader = open(deltaFile)) {
+                    delta = RuleDelta.read(reader, getFilter());
+                }
+                LOG.info("Loaded delta for {} hosts and domains from {}", delta.size(), deltaFile);
+                deltaVersion = version;
+                changed = true;
+            }
+        }
+
+        if (changed) {
+            publish();
+        }
+    }
+
+    /** Load the base rules from a stream, the current delta (if any) is applied again */
+    synchronized void load(InputStream inputStream) throws IOException {
+        try (Reader reader = new InputStreamReader(inputStream, StandardCharsets.UTF_8)) {
+            base = FastURLFilter.readRules(reader, getFilter()).build();
+        }
+        resourceVersion = null;
+        publish();
+        loaded.countDown();
+    }
+
+    /** Wait until the first attempt to load the rules is finished */
+    void awaitLoaded() {
+        try {
+            loaded.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Publish the new rules, only called after they are completely loaded */
+    private void publish() {
+        long start = System.currentTimeMillis();
+        DomainTrie overlay = (delta == null) ? null : delta.applyTo(base);
+        rules = new Rules(base, overlay);
+        PUBLISHED.incrementAndGet();
+        if (overlay != null) {
+            LOG.info(
+                    "Applied delta ({} host rules and {} domain rules) in {} msec",
+                    overlay.getNumHostRules(),
+                    overlay.getNumDomainRules(),
+                    (System.currentTimeMillis() - start));
+        }
+    }
+
+    /**
+     * @return version of a file: the ETag of S3 objects, modification time and size of local files
+     *     or null if unknown
+     */
+    private String getVersion(String file) throws Exception {
+        if (file.startsWith("s3://")) {
+            URI uri = new URI(file);
+            return getS3Client()
+                    .headObject(
+                            HeadObjectRequest.builder()
+                                    .bucket(uri.getHost())
+                                    .key(uri.getPath().substring(1))
+                                    .build())
+                    .eTag();
+        } else if (isLocal(file) || file.endsWith(FastURLFilter.INDEX_SUFFIX)) {
+            Path path = toPath(file);
+            return Files.getLastModifiedTime(path).toMillis() + "/" + Files.size(path);
+        }
+        URL url = getClass().getClassLoader().getResource(file);
+        if (url == null) {
+            throw new IOException("Can't find " + file + " on class path");
+        }
+        URLConnection connection = url.openConnection();
+        long lastModified = connection.getLastModified();
+        long size = connection.getContentLengthLong();
+        if (lastModified <= 0 || size < 0) {
+            return null;
+        }
+        return lastModified + "/" + size;
+    }
+
+    private Reader open(String file) throws Exception {
+        InputStream inputStream;
+        if (file.startsWith("s3://")) {
+            URI uri = new URI(file);
+            inputStream =
+                    getS3Client()
+                            .getObject(
+                                    GetObjectRequest.builder()
+                                            .bucket(uri.getHost())
+                                            // remove the first "/"
+                                            .key(uri.getPath().substring(1))
+                                            .build());
+        } else if (isLocal(file)) {
+            inputStream = Files.newInputStream(toPath(file));
+        } else {
+            inputStream = getClass().getClassLoader().getResourceAsStream(file);
+            if (inputStream == null) {
+                throw new IOException("Can't load conf from " + file);
+            }
+        }
+        inputStream = new BufferedInputStream(inputStream);
+        if (file.endsWith(".gz")) {
+            inputStream = new GZIPInputStream(inputStream);
+        }
+        return new InputStreamReader(inputStream, StandardCharsets.UTF_8);
+    }
+
+    private synchronized S3Client getS3Client() {
+        if (s3client == null) {
+            s3client = S3Client.builder().httpClient(UrlConnectionHttpClient.create()).build();
+        }
+        return s3client;
+    }
+
+    private static boolean isLocal(String file) {
+        return file.startsWith("file:") || Paths.get(file).isAbsolute();
+    }
+
+    private static Path toPath(String file) {
+        if (file.startsWith("file:")) {
+            return Paths.get(URI.create(file));
+        }
+        return Paths.get(file);
+    }
+
+    synchronized void close() {
+        if (s3client != null) {
+            s3client.close();
+            s3client = null;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commoncrawl.stormcrawler.filter;
+
+import java.lang.invoke.MethodHandles;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JVM-wide registry of the rules loaded by {@link FastURLFilter} instances. All filters configured
+ * with the same rule file, delta file, refresh rate and shard share one {@link RulesLoader} and
+ * thus one copy of the rules and one S3 client. Entries are reference-counted: they are created by
+ * the first call of {@link #acquire(String, String, int, HostShards)} and removed when the last
+ * filter using them has called {@link #release(RulesLoader)}.
+ *
+ * <p>Periodic reloads of all entries are run by a single daemon thread.
+ */
+final class RulesRegistry {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    private static final class Entry {
+        final List<Object> key;
+        final RulesLoader loader;
+        int references;
+        ScheduledFuture<?> reload;
+
+        Entry(List<Object> key, RulesLoader loader) {
+            this.key = key;
+            this.loader = loader;
+        }
+    }
+
+    /** guarded by the class lock */
+    private static final Map<List<Object>, Entry> ENTRIES = new HashMap<>();
+
+    private static final Map<RulesLoader, Entry> BY_LOADER = new HashMap<>();
+
+    private static ScheduledExecutorService reloader;
+
+    /** periodic reordering of rules by hit rate, see {@link RuleGroup#reorder()} */
+    private static ScheduledFuture<?> reordering;
+
+    private RulesRegistry() {}
+
+    /**
+     * Get the shared rules for the given files and refresh rate. The rules are loaded when the
+     * entry is created, if loading fails the error is logged and the rules are empty until the next
+     * successful reload.
+     *
+     * @param refreshRate reload interval in seconds, -1 to disable reloading
+     * @param shards shard of the rules to be loaded, null to load all rules
+     */
+    static RulesLoader acquire(
+            String resourceFile, String deltaFile, int refreshRate, HostShards shards) {
+        List<Object> key =
+                List.of(
+                        Objects.toString(resourceFile),
+                        Objects.toString(deltaFile),
+                        refreshRate,
+                        Objects.toString(shards));
+        Entry entry;
+        boolean created = false;
+        synchronized (RulesRegistry.class) {
+            entry = ENTRIES.get(key);
+            if (entry == null) {
+                entry = new Entry(key, new RulesLoader(resourceFile, deltaFile, shards));
+                ENTRIES.put(key, entry);
+                BY_LOADER.put(entry.loader, entry);
+                created = true;
+            }
+            entry.references++;
+        }
+
+        final RulesLoader loader = entry.loader;
+        if (created) {
+            // load outside of the registry lock, concurrent callers wait until it is finished
+            load(loader);
+            if (refreshRate != -1) {
+                LOG.info("Filter set to reload from {} every {} sec", resourceFile, refreshRate);
+                synchronized (RulesRegistry.class) {
+                    if (entry.references > 0) {
+                        entry.reload =
+                                getReloader()
+                                        .scheduleWithFixedDelay(
+                                                () -> load(loader),
+                                                refreshRate,
+                                                refreshRate,
+                                                TimeUnit.SECONDS);
+                    }
+                }
+            }
+        } else {
+            // wait until the initial load by the thread which created the entry has finished
+            loader.awaitLoaded();
+        }
+        return loader;
+    }
+
+    /** Release a loader obtained by {@link #acquire(String, String, int, HostShards)} */
+    static void release(RulesLoader loader) {
+        synchronized (RulesRegistry.class) {
+            Entry entry = BY_LOADER.get(loader);
+            if (entry == null || --entry.references > 0) {
+                return;
+            }
+            ENTRIES.remove(entry.key);
+            BY_LOADER.remove(loader);
+            if (entry.reload != null) {
+                entry.reload.cancel(false);
+            }
+            if (ENTRIES.isEmpty() && reloader != null) {
+                reloader.shutdown();
+                reloader = null;
+                reordering = null;
+            }
+        }
+        loader.close();
+    }
+
+    /**
+     * Reorder the rules of all groups by their hit rate every given number of seconds, on the
+     * reload thread. Scheduled once per JVM, the interval requested first applies.
+     */
+    static synchronized void scheduleReordering(int seconds) {
+        if (reordering != null) {
+            return;
+        }
+        LOG.info("Reordering rules by hit rate every {} sec", seconds);
+        reordering =
+                getReloader()
+                        .scheduleWithFixedDelay(
+                                RuleStats::reorderAll, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    private static void load(RulesLoader loader) {
+        try {
+            loader.load();
+        } catch (Exception e) {
+            LOG.error("Can't load resources from {}", loader.getResourceFile(), e);
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getReloader() {
+        if (reloader == null) {
+            reloader =
+                    Executors.newSingleThreadScheduledExecutor(
+                            r -> {
+                                Thread t = new Thread(r, "FastURLFilter-reload");
+                                t.setDaemon(true);
+                                return t;
+                            });
+        }
+        return reloader;
+    }
+}
@@ -13,15 +13,48 @@
  */
 package org.commoncrawl.stormcrawler.news;
 
-import com.google.common.primitives.Bytes;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
 
+/**
+ * Content sniffing for a set of clue strings in a prefix of the binary content. All clues are
+ * compiled into a single Aho-Corasick automaton over bytes, the prefix is scanned once and in
+ * place, no matter how many clues are defined.
+ *
+ * <p>Gzip-compressed content (recognized by the magic bytes) is inflated only up to the max. offset
+ * into a buffer reused per thread, so that the clues are found in compressed sitemaps and feeds
+ * without decompressing the entire content.
+ */
 public class ContentDetector {
 
-    protected byte[][][] clues;
     protected int maxOffset;
 
+    /** number of clue groups */
+    private final int numGroups;
+
+    /** clues (indexes into the found clues) per group */
+    private final int[][] groups;
+
+    /** number of distinct clues */
+    private final int numClues;
+
+    /** transitions of the automaton, 256 per state */
+    private final int[] transitions;
+
+    /** clues found when a state is reached (including clues ending in shorter suffixes) */
+    private final int[][] output;
+
+    /** buffer holding the inflated prefix of compressed content */
+    private final ThreadLocal<byte[]> inflated;
+
     /**
      * Set up detector to detect content sniffing for a set of clue strings in a prefix of the
      * binary content.
@@ -38,29 +71,145 @@ public class ContentDetector {
      */
     public ContentDetector(String[][] clues, int maxOffset) {
         this.maxOffset = maxOffset;
-        this.clues = new byte[clues.length][][];
+        inflated = ThreadLocal.withInitial(() -> new byte[maxOffset]);
+        numGroups = clues.length;
+        groups = new int[clues.length][];
+
+        // trie of all clues, states are indexes into the lists
+        List<int[]> gotos = new ArrayList<>();
+        List<List<Integer>> ending = new ArrayList<>();
+        gotos.add(newState());
+        ending.add(new ArrayList<>());
+        int clueId = 0;
         for (int i = 0; i < clues.length; i++) {
-            this.clues[i] = new byte[clues[i].length][];
-            for (int j = 0; j < clues[i].length; j++)
-                this.clues[i][j] = clues[i][j].getBytes(StandardCharsets.UTF_8);
+            groups[i] = new int[clues[i].length];
+            for (int j = 0; j < clues[i].length; j++) {
+                int state = 0;
+                for (byte b : clues[i][j].getBytes(StandardCharsets.UTF_8)) {
+                    int next = gotos.get(state)[b & 0xff];
+                    if (next == -1) {
+                        next = gotos.size();
+                        gotos.add(newState());
+                        ending.add(new ArrayList<>());
+                        gotos.get(state)[b & 0xff] = next;
+                    }
+                    state = next;
+                }
+                ending.get(state).add(clueId);
+                groups[i][j] = clueId++;
+            }
+        }
+        numClues = clueId;
+
+        // breadth-first: complete the transitions (failure links folded in) and the outputs
+        int numStates = gotos.size();
+        transitions = new int[numStates * 256];
+        output = new int[numStates][];
+        int[] fail = new int[numStates];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        output[0] = toArray(ending.get(0));
+        for (int c = 0; c < 256; c++) {
+            int t = gotos.get(0)[c];
+            if (t == -1) {
+                transitions[c] = 0;
+            } else {
+                transitions[c] = t;
+                fail[t] = 0;
+                queue.add(t);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int s = queue.poll();
+            List<Integer> out = new ArrayList<>(ending.get(s));
+            for (int clue : output[fail[s]]) {
+                out.add(clue);
+            }
+            output[s] = toArray(out);
+            for (int c = 0; c < 256; c++) {
+                int t = gotos.get(s)[c];
+                if (t == -1) {
+                    transitions[s * 256 + c] = transitions[fail[s] * 256 + c];
+                } else {
+                    transitions[s * 256 + c] = t;
+                    fail[t] = transitions[fail[s] * 256 + c];
+                    queue.add(t);
+                }
+            }
         }
     }
 
-    public int getFirstMatch(byte[] content) {
-        byte[] beginning = content;
-        if (content.length > maxOffset) {
-            beginning = Arrays.copyOfRange(content, 0, maxOffset);
+    private static int[] newState() {
+        int[] state = new int[256];
+        Arrays.fill(state, -1);
+        return state;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        return list.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Scan the content prefix once for all clues.
+     *
+     * @return the groups of clues matched, all members of a group must be found
+     */
+    public BitSet getMatches(byte[] content) {
+        int end = Math.min(content.length, maxOffset);
+        if (isGzipped(content)) {
+            byte[] buffer = inflated.get();
+            end = inflatePrefix(content, buffer);
+            content = buffer;
+        }
+
+        BitSet found = new BitSet(numClues);
+        int state = 0;
+        for (int i = 0; i < end; i++) {
+            state = transitions[(state << 8) | (content[i] & 0xff)];
+            for (int clue : output[state]) {
+                found.set(clue);
+            }
         }
+
+        BitSet matches = new BitSet(numGroups);
         OR:
-        for (int i = 0; i < clues.length; i++) {
-            byte[][] group = clues[i];
-            for (byte[] clue : group) {
-                if (Bytes.indexOf(beginning, clue) == -1) continue OR;
+        for (int i = 0; i < numGroups; i++) {
+            for (int clue : groups[i]) {
+                if (!found.get(clue)) continue OR;
             }
             // success, all members of one group matched
-            return i;
+            matches.set(i);
+        }
+        return matches;
+    }
+
+    static boolean isGzipped(byte[] content) {
+        return content.length > 2 && content[0] == (byte) 0x1f && content[1] == (byte) 0x8b;
+    }
+
+    /**
+     * Inflate compressed content until the buffer is filled or the end of the (possibly truncated)
+     * content is reached. The inflater reads the compressed input in small chunks, so that only
+     * little more than needed is decompressed.
+     *
+     * @return number of bytes inflated
+     */
+    private static int inflatePrefix(byte[] content, byte[] buffer) {
+        int length = 0;
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(content), 512)) {
+            int n;
+            while (length < buffer.length
+                    && (n = in.read(buffer, length, buffer.length - length)) != -1) {
+                length += n;
+            }
+        } catch (IOException e) {
+            // truncated or corrupt content, use what has been inflated so far
         }
-        return -1;
+        return length;
+    }
+
+    /** @return the index of the first group of clues matched, -1 if none matched */
+    public int getFirstMatch(byte[] content) {
+        return getMatches(content).nextSetBit(0);
     }
 
     public boolean matches(byte[] content) {
@@ -0,0 +1,182 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commoncrawl.stormcrawler.news;
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.apache.http.HttpHeaders;
+import org.apache.storm.metric.api.MultiCountMetric;
+import org.apache.storm.task.OutputCollector;
+import org.apache.storm.task.TopologyContext;
+import org.apache.storm.topology.OutputFieldsDeclarer;
+import org.apache.storm.topology.base.BaseRichBolt;
+import org.apache.storm.tuple.Fields;
+import org.apache.storm.tuple.Tuple;
+import org.apache.stormcrawler.Metadata;
+import org.apache.stormcrawler.bolt.FeedParserBolt;
+import org.apache.stormcrawler.bolt.SiteMapParserBolt;
+import org.apache.stormcrawler.util.ConfUtils;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Classifies fetched pages once, right after the fetcher, and routes them to separate streams:
+ * sitemaps (stream <code>sitemap</code>) to the {@link NewsSiteMapParserBolt}, feeds (stream
+ * <code>feed</code>) to the feed parser and all other pages (default stream) directly to the WARC
+ * writer and indexer. This saves the plain pages, the large majority, from being passed with their
+ * content through the sitemap and feed parsers.
+ *
+ * <p>Pages are classified by the same metadata, content type and content clues the sitemap and feed
+ * parsers use, content sniffing is enabled by <code>sitemap.sniffContent</code> and <code>
+ * feed.sniffContent</code>. Pages detected as feed are marked in the metadata, and so is the type
+ * of sitemap (news sitemap, sitemap index or plain sitemap) if sitemap content sniffing is enabled,
+ * also for sitemaps already known by their metadata. The feed and sitemap parsers do not need to
+ * sniff the content again. The sitemap parser passes on pages which turn out not to be sitemaps, so
+ * that its default stream still needs to be connected to the feed parser.
+ */
+@SuppressWarnings("serial")
+public class ContentRouterBolt extends BaseRichBolt {
+
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(ContentRouterBolt.class);
+
+    public static final String SITEMAP_STREAM = "sitemap";
+
+    public static final String FEED_STREAM = "feed";
+
+    private static ContentDetector contentDetector;
+
+    private OutputCollector collector;
+
+    private boolean sniffSitemaps;
+    private boolean sniffFeeds;
+
+    private MultiCountMetric routedMetrics;
+
+    @Override
+    public void execute(Tuple tuple) {
+        String url = tuple.getStringByField("url");
+        byte[] content = tuple.getBinaryByField("content");
+        Metadata metadata = (Metadata) tuple.getValueByField("metadata");
+
+        String stream = classify(url, content, metadata);
+        routedMetrics.scope(stream == null ? "default" : stream).incr();
+
+        if (stream == null) {
+            collector.emit(tuple, tuple.getValues());
+        } else {
+            collector.emit(stream, tuple, tuple.getValues());
+        }
+        collector.ack(tuple);
+    }
+
+    /**
+     * Classify the page and mark feeds and the type of sitemaps in the metadata.
+     *
+     * @return the stream the page is routed to, null for the default stream
+     */
+    String classify(String url, byte[] content, Metadata metadata) {
+        if (isTrue(metadata, SiteMapParserBolt.isSitemapKey)
+                || isTrue(metadata, NewsSiteMapParserBolt.isSitemapNewsKey)
+                || isTrue(metadata, NewsSiteMapParserBolt.isSitemapIndexKey)
+                || isTrue(metadata, NewsSiteMapParserBolt.isSitemapVerifiedKey)) {
+            if (sniffSitemaps && content != null) {
+                // the type of sitemap may have changed
+                setSitemapType(url, contentDetector.getMatches(content), metadata);
+            }
+            return SITEMAP_STREAM;
+        }
+        if (isTrue(metadata, FeedParserBolt.isFeedKey)) {
+            return FEED_STREAM;
+        }
+
+        String ct = metadata.getFirstValue(HttpHeaders.CONTENT_TYPE);
+        if (ct != null) {
+            for (String clue : FeedDetectorBolt.mimeTypeClues) {
+                if (ct.contains(clue)) {
+                    LOG.debug("{} detected as feed from content type <{}>", url, ct);
+                    metadata.setValue(FeedParserBolt.isFeedKey, "true");
+                    return FEED_STREAM;
+                }
+            }
+        }
+
+        if (content == null || !(sniffSitemaps || sniffFeeds)) {
+            return null;
+        }
+        BitSet matches = contentDetector.getMatches(content);
+        int first = matches.nextSetBit(0);
+        if (first == -1) {
+            return null;
+        }
+        if (first < FeedDetectorBolt.contentClues.length) {
+            // a feed, even if sitemap clues are matched as well
+            if (sniffFeeds) {
+                LOG.debug("{} detected as feed from content", url);
+                metadata.setValue(FeedParserBolt.isFeedKey, "true");
+                return FEED_STREAM;
+            }
+            return null;
+        }
+        if (sniffSitemaps) {
+            setSitemapType(url, matches, metadata);
+            return SITEMAP_STREAM;
+        }
+        return null;
+    }
+
+    /**
+     * Mark the type of sitemap in the metadata, the same way as done by the {@link
+     * NewsSiteMapParserBolt} when sniffing the content. Nothing is marked if no sitemap clue is
+     * matched or if the content is sniffed as feed.
+     */
+    private static void setSitemapType(String url, BitSet matches, Metadata metadata) {
+        int numFeedClues = FeedDetectorBolt.contentClues.length;
+        int first = matches.nextSetBit(0);
+        if (first < numFeedClues) {
+            return;
+        }
+        NewsSiteMapParserBolt.SitemapType type =
+                NewsSiteMapParserBolt.getSitemapType(first - numFeedClues);
+        LOG.debug("{} detected as {} from content", url, type);
+        NewsSiteMapParserBolt.setSitemapType(metadata, type);
+    }
+
+    private static boolean isTrue(Metadata metadata, String key) {
+        return Boolean.parseBoolean(metadata.getFirstValue(key));
+    }
+
+    @Override
+    public void declareOutputFields(OutputFieldsDeclarer declarer) {
+        Fields fields = new Fields("url", "content", "metadata");
+        declarer.declare(fields);
+        declarer.declareStream(SITEMAP_STREAM, fields);
+        declarer.declareStream(FEED_STREAM, fields);
+    }
+
+    @Override
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public void prepare(Map stormConf, TopologyContext context, OutputCollector collector) {
+        this.collector = collector;
+        sniffSitemaps = ConfUtils.getBoolean(stormConf, "sitemap.sniffContent", false);
+        sniffFeeds = ConfUtils.getBoolean(stormConf, "feed.sniffContent", false);
+        int maxOffsetGuess = ConfUtils.getInt(stormConf, "sitemap.offset.guess", 1024);
+        String[][] clues =
+                Stream.concat(
+                                Stream.of(FeedDetectorBolt.contentClues),
+                                Stream.of(NewsSiteMapParserBolt.contentClues))
+                        .toArray(String[][]::new);
+        contentDetector = new ContentDetector(clues, maxOffsetGuess);
+        routedMetrics = context.registerMetric("content_router", new MultiCountMetric(), 60);
+    }
+}
@@ -30,7 +30,6 @@ import org.apache.stormcrawler.bolt.URLFilterBolt;
 import org.apache.stormcrawler.bolt.URLPartitionerBolt;
 import org.apache.stormcrawler.indexing.DummyIndexer;
 import org.apache.stormcrawler.opensearch.persistence.AggregationSpout;
-import org.apache.stormcrawler.opensearch.persistence.StatusUpdaterBolt;
 import org.apache.stormcrawler.protocol.AbstractHttpProtocol;
 import org.apache.stormcrawler.spout.FileSpout;
 import org.apache.stormcrawler.util.ConfUtils;
@@ -39,6 +38,7 @@ import org.apache.stormcrawler.warc.FileTimeSizeRotationPolicy;
 import org.apache.stormcrawler.warc.FileTimeSizeRotationPolicy.Units;
 import org.apache.stormcrawler.warc.WARCFileNameFormat;
 import org.apache.stormcrawler.warc.WARCHdfsBolt;
+import org.commoncrawl.stormcrawler.filter.HostShards;
 import org.slf4j.LoggerFactory;
 
 /** Dummy topology to play with the spouts and bolts on OpenSearch */
@@ -72,8 +72,14 @@ public class CrawlTopology extends ConfigurableTopology {
 
         builder.setSpout("spout", new AggregationSpout(), numShards);
 
-        builder.setBolt("prefilter", new PreFilterBolt("pre-urlfilters.json"), numWorkers)
-                .shuffleGrouping("spout");
+        BoltDeclarer prefilter =
+                builder.setBolt("prefilter", new PreFilterBolt("pre-urlfilters.json"), numWorkers);
+        if (ConfUtils.getBoolean(getConf(), HostShards.SHARDED_PARAM, false)) {
+            // every task holds only the URL filter rules of its shard of the domains
+            prefilter.customGrouping("spout", new HostShardGrouping());
+        } else {
+            prefilter.shuffleGrouping("spout");
+        }
 
         builder.setBolt("partitioner", new URLPartitionerBolt(), numWorkers)
                 .shuffleGrouping("prefilter");
@@ -81,32 +87,48 @@ public class CrawlTopology extends ConfigurableTopology {
         builder.setBolt("fetch", new FetcherBolt(), numWorkers)
                 .fieldsGrouping("partitioner", new Fields("key"));
 
+        // classify pages once: only sitemaps and feeds are passed to the parsers
+        builder.setBolt("router", new ContentRouterBolt(), numWorkers)
+                .localOrShuffleGrouping("fetch");
+
         builder.setBolt("sitemap", new NewsSiteMapParserBolt(), numWorkers)
                 .setNumTasks(2)
-                .localOrShuffleGrouping("fetch");
+                .localOrShuffleGrouping("router", ContentRouterBolt.SITEMAP_STREAM);
 
-        builder.setBolt("feed", new FeedParserBolt(), numWorkers)
+        // pages passed on by the sitemap parser are not sitemaps but may be feeds
+        FeedParserBolt feedParser = new FeedParserBolt();
+        if (ConfUtils.getBoolean(getConf(), "feed.parser.streaming", false)) {
+            feedParser = new NewsFeedParserBolt();
+        }
+        builder.setBolt("feed", feedParser, numWorkers)
                 .setNumTasks(4)
+                .localOrShuffleGrouping("router", ContentRouterBolt.FEED_STREAM)
                 .localOrShuffleGrouping("sitemap");
 
         // don't need to parse the pages but need to update their status
-        builder.setBolt("ssb", new DummyIndexer(), numWorkers).localOrShuffleGrouping("feed");
+        builder.setBolt("ssb", new DummyIndexer(), numWorkers)
+                .localOrShuffleGrouping("router")
+                .localOrShuffleGrouping("feed");
 
         WARCHdfsBolt warcbolt = getWarcBolt("CC-NEWS");
 
-        // take it from feed default output so that the feed files themselves
-        // don't get included - unless we want them too of course!
-        builder.setBolt("warc", warcbolt, numWorkers).localOrShuffleGrouping("feed");
+        // take it from router and feed default output so that the sitemaps and
+        // feed files themselves don't get included - unless we want them too of course!
+        builder.setBolt("warc", warcbolt, numWorkers)
+                .localOrShuffleGrouping("router")
+                .localOrShuffleGrouping("feed");
 
         final Fields furl = new Fields("url");
 
         BoltDeclarer statusBolt =
-                builder.setBolt("status", new StatusUpdaterBolt(), numWorkers)
+                builder.setBolt("status", new NewsStatusUpdaterBolt(), numWorkers)
                         .fieldsGrouping("fetch", Constants.StatusStreamName, furl)
                         .fieldsGrouping("sitemap", Constants.StatusStreamName, furl)
                         .fieldsGrouping("feed", Constants.StatusStreamName, furl)
                         .fieldsGrouping("ssb", Constants.StatusStreamName, furl)
-                        .fieldsGrouping("prefilter", Constants.StatusStreamName, furl);
+                        .fieldsGrouping("prefilter", Constants.StatusStreamName, furl)
+                        // links discovered in sitemaps if sitemap.status.batch is true
+                        .directGrouping("sitemap", NewsSiteMapParserBolt.STATUS_BATCH_STREAM);
 
         if (args.length >= 2) {
             statusBolt.customGrouping(
@@ -0,0 +1,381 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commoncrawl.stormcrawler.news;
+
+import crawlercommons.sitemaps.AbstractSiteMap;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Streaming (StAX) parser for RSS (0.9x, 1.0 and 2.0) and Atom feeds. Items are passed to a {@link
+ * Handler} one by one while the feed is read, without building an object model of the feed. Items
+ * with a publication date not accepted by the date filter are skipped as soon as the date is read.
+ *
+ * <p>If a watermark is passed to {@link #parse(byte[], Handler, Date)}, parsing stops after a
+ * series of items published before the watermark, same as done by the {@link SiteMapStreamParser}.
+ *
+ * <p>Broken feeds are tolerated: if the feed is not well-formed, the items read before the error
+ * are kept. Only if the root element is not a feed (<code>rss</code>, <code>rdf:RDF</code> or
+ * <code>feed</code>), {@link #parse(byte[], Handler)} returns null.
+ */
+class FeedStreamParser {
+
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(FeedStreamParser.class);
+
+    private static final String ATOM_NAMESPACE = "http://www.w3.org/2005/Atom";
+
+    private static final XMLInputFactory FACTORY = XMLInputFactory.newFactory();
+
+    static {
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        FACTORY.setProperty(XMLInputFactory.IS_COALESCING, true);
+    }
+
+    /** time zone abbreviations allowed in RFC 822 dates but not supported by RFC 1123 parsing */
+    private static final Map<String, String> ZONES = new HashMap<>();
+
+    static {
+        ZONES.put("UT", "+0000");
+        ZONES.put("UTC", "+0000");
+        ZONES.put("Z", "+0000");
+        ZONES.put("EST", "-0500");
+        ZONES.put("EDT", "-0400");
+        ZONES.put("CST", "-0600");
+        ZONES.put("CDT", "-0500");
+        ZONES.put("MST", "-0700");
+        ZONES.put("MDT", "-0600");
+        ZONES.put("PST", "-0800");
+        ZONES.put("PDT", "-0700");
+    }
+
+    /** Receives the items of a feed which pass the date filter */
+    interface Handler {
+
+        /**
+         * @param link link of the item (absolute or relative)
+         * @param title title, null if not given
+         * @param published publication date, null if not given or not parseable
+         * @param description description or summary, null if not given
+         */
+        void item(String link, String title, Date published, String description);
+
+        /**
+         * Publication date of an item, called for all items including those skipped because they
+         * are outdated or have no link
+         */
+        default void published(Date published) {}
+    }
+
+    /** Statistics of a parsed feed */
+    static class Result {
+        int found;
+        int skipped;
+        /** whether parsing stopped early because the feed is not well-formed */
+        boolean truncated;
+        /** whether parsing stopped at the watermark */
+        boolean stopped;
+        /** most recent publication date, null if no item has one */
+        Date newest;
+    }
+
+    private final Predicate<Date> recent;
+
+    /** @param recent filter for the publication dates */
+    FeedStreamParser(Predicate<Date> recent) {
+        this.recent = recent;
+    }
+
+    /** @return the result or null if the content is not an RSS or Atom feed */
+    Result parse(byte[] content, Handler handler) throws IOException {
+        return parse(content, handler, null);
+    }
+
+    /**
+     * @param watermark stop parsing after a series of items published before this date, null to
+     *     parse the entire feed
+     * @return the result or null if the content is not an RSS or Atom feed
+     */
+    Result parse(byte[] content, Handler handler, Date watermark) throws IOException {
+        InputStream in = new ByteArrayInputStream(content);
+        if (ContentDetector.isGzipped(content)) {
+            in = new GZIPInputStream(in);
+        }
+        XMLStreamReader reader = null;
+        try {
+            reader = FACTORY.createXMLStreamReader(in);
+            return parse(reader, handler, watermark);
+        } catch (XMLStreamException e) {
+            // not well-formed XML before the root element is read
+            LOG.debug("Failed to parse as XML: {}", e.getMessage());
+            return null;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // ignore
+                }
+            }
+            in.close();
+        }
+    }
+
+    private Result parse(XMLStreamReader reader, Handler handler, Date watermark)
+            throws XMLStreamException {
+        while (reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT) {
+            // skip prolog
+        }
+        if (!reader.isStartElement()) {
+            return null;
+        }
+        String root = reader.getLocalName();
+        boolean atom;
+        if ("feed".equals(root)) {
+            atom = true;
+        } else if ("rss".equals(root) || "RDF".equals(root)) {
+            atom = false;
+        } else {
+            return null;
+        }
+        String itemName = atom ? "entry" : "item";
+
+        Result result = new Result();
+        // depth of the current element relative to the item, 0 if outside of an item
+        int depth = 0;
+        boolean outdated = false;
+        String link = null;
+        String title = null;
+        String description = null;
+        Date published = null;
+        Date updated = null;
+        // consecutive items published before the watermark
+        int beforeWatermark = 0;
+
+        try {
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if (depth == 0) {
+                        if (itemName.equals(name)) {
+                            if (beforeWatermark >= SiteMapStreamParser.STOP_AFTER) {
+                                LOG.debug("Stopped at items published before {}", watermark);
+                                result.stopped = true;
+                                break;
+                            }
+                            depth = 1;
+                            outdated = false;
+                            link = null;
+                            title = null;
+                            description = null;
+                            published = null;
+                            updated = null;
+                            if (!atom) {
+                                // RSS 1.0: <item rdf:about="...">
+                                link = reader.getAttributeValue(null, "about");
+                                if (link == null) {
+                                    link = getAttribute(reader, "about");
+                                }
+                            }
+                        }
+                        continue;
+                    }
+                    if (outdated || depth > 1) {
+                        // skip the remaining elements of outdated items and nested elements
+                        depth++;
+                        continue;
+                    }
+                    // child of the item: read the text or attributes, the reader is then
+                    // positioned on the end element (depth unchanged)
+                    if ("link".equals(name)) {
+                        if (atom) {
+                            String rel = reader.getAttributeValue(null, "rel");
+                            String href = reader.getAttributeValue(null, "href");
+                            if (href != null && (rel == null || "alternate".equals(rel))) {
+                                link = href.trim();
+                            }
+                            skipElement(reader);
+                        } else if (ATOM_NAMESPACE.equals(reader.getNamespaceURI())) {
+                            // atom:link in RSS, used only if there is no other link
+                            String href = reader.getAttributeValue(null, "href");
+                            if (link == null && href != null) {
+                                link = href.trim();
+                            }
+                            skipElement(reader);
+                        } else {
+                            String text = reader.getElementText().trim();
+                            if (!text.isEmpty()) {
+                                link = text;
+                            }
+                        }
+                    } else if ("guid".equals(name)) {
+                        String permaLink = reader.getAttributeValue(null, "isPermaLink");
+                        String guid = reader.getElementText().trim();
+                        if (link == null
+                                && !"false".equalsIgnoreCase(permaLink)
+                                && guid.startsWith("http")) {
+                            link = guid;
+                        }
+                    } else if ("pubDate".equals(name)
+                            || "published".equals(name)
+                            || "issued".equals(name)
+                            || ("date".equals(name) && published == null)) {
+                        published = parseDate(reader.getElementText());
+                        if (published != null && !recent.test(published)) {
+                            outdated = true;
+                        }
+                    } else if ("updated".equals(name) || "modified".equals(name)) {
+                        updated = parseDate(reader.getElementText());
+                    } else if ("title".equals(name) && title == null) {
+                        title = readText(reader);
+                    } else if (("description".equals(name) || "summary".equals(name))
+                            && description == null) {
+                        description = readText(reader);
+                    } else {
+                        depth++;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && depth > 0) {
+                    depth--;
+                    if (depth > 0) {
+                        continue;
+                    }
+                    // end of item
+                    result.found++;
+                    if (published == null && updated != null) {
+                        // Atom entries may only have an update date
+                        published = updated;
+                        outdated = !recent.test(published);
+                    }
+                    if (published != null) {
+                        if (result.newest == null || published.after(result.newest)) {
+                            result.newest = published;
+                        }
+                        if (watermark != null && published.before(watermark)) {
+                            beforeWatermark++;
+                        } else {
+                            beforeWatermark = 0;
+                        }
+                        handler.published(published);
+                    }
+                    if (outdated) {
+                        result.skipped++;
+                        LOG.debug("{} is older than the configured max. age", link);
+                        continue;
+                    }
+                    if (link == null || link.isEmpty()) {
+                        continue;
+                    }
+                    handler.item(link, title, published, description);
+                }
+            }
+        } catch (XMLStreamException e) {
+            // keep the items read so far (broken feed)
+            LOG.info("Failed to parse feed completely: {}", e.getMessage());
+            result.truncated = true;
+        }
+        return result;
+    }
+
+    private static String getAttribute(XMLStreamReader reader, String localName) {
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            if (localName.equals(reader.getAttributeLocalName(i))) {
+                return reader.getAttributeValue(i);
+            }
+        }
+        return null;
+    }
+
+    /** read the text content of an element, including text nested in child elements (XHTML) */
+    private static String readText(XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            } else if (event == XMLStreamConstants.CHARACTERS
+                    || event == XMLStreamConstants.CDATA) {
+                text.append(reader.getText());
+            }
+        }
+        String s = text.toString().trim();
+        return s.isEmpty() ? null : s;
+    }
+
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Parse a date in RFC 822 format (RSS) or in W3C / ISO 8601 format (Atom, Dublin Core)
+     *
+     * @return the date or null if the date cannot be parsed
+     */
+    static Date parseDate(String date) {
+        date = date.trim();
+        if (date.isEmpty()) {
+            return null;
+        }
+        if (Character.isDigit(date.charAt(0)) && date.indexOf('-') == 4) {
+            return AbstractSiteMap.convertToDate(date);
+        }
+        Date parsed = parseRFC1123(date);
+        if (parsed == null) {
+            // replace a time zone abbreviation
+            int space = date.lastIndexOf(' ');
+            if (space != -1) {
+                String zone = ZONES.get(date.substring(space + 1).toUpperCase(Locale.ROOT));
+                if (zone != null) {
+                    parsed = parseRFC1123(date.substring(0, space + 1) + zone);
+                }
+            }
+        }
+        return parsed;
+    }
+
+    private static Date parseRFC1123(String date) {
+        try {
+            return Date.from(
+                    ZonedDateTime.parse(date, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant());
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.commoncrawl.stormcrawler.news;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.storm.generated.GlobalStreamId;
+import org.apache.storm.grouping.CustomStreamGrouping;
+import org.apache.storm.task.WorkerTopologyContext;
+import org.commoncrawl.stormcrawler.filter.HostShards;
+import org.commoncrawl.stormcrawler.filter.ParsedURL;
+
+/**
+ * Routes URLs to the {@link PreFilterBolt} task holding the shard of the {@link
+ * org.commoncrawl.stormcrawler.filter.FastURLFilter} rules for the registered domain of the URL,
+ * see {@link HostShards}. The URL is expected as first field of the tuple. The host name is taken
+ * from the {@link ParsedURL}, the same as used by the filter to match the rules. URLs which cannot
+ * be parsed are sent to the first task.
+ */
+public class HostShardGrouping implements CustomStreamGrouping {
+
+    private static final long serialVersionUID = 1L;
+
+    private List<Integer> targetTasks;
+
+    @Override
+    public void prepare(
+            WorkerTopologyContext context, GlobalStreamId stream, List<Integer> targetTasks) {
+        // order by task ID, same as the task index of the bolt
+        this.targetTasks = new ArrayList<>(targetTasks);
+        Collections.sort(this.targetTasks);
+    }
+
+    @Override
+    public List<Integer> chooseTasks(int taskId, List<Object> values) {
+        int shard = 0;
+        ParsedURL url = ParsedURL.parse((String) values.get(0));
+        if (url != null) {
+            shard = HostShards.getShard(url.getHost(), targetTasks.size());
+        }
+        // else: malformed URL, rejected by any shard
+        return Collections.singletonList(targetTasks.get(shard));
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commoncrawl.stormcrawler.news;
+
+import java.net.URL;
+import java.time.Instant;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Map;
+import org.apache.http.HttpHeaders;
+import org.apache.storm.metric.api.MeanReducer;
+import org.apache.storm.metric.api.MultiCountMetric;
+import org.apache.storm.metric.api.ReducedMetric;
+import org.apache.storm.task.OutputCollector;
+import org.apache.storm.task.TopologyContext;
+import org.apache.storm.tuple.Tuple;
+import org.apache.storm.tuple.Values;
+import org.apache.stormcrawler.Constants;
+import org.apache.stormcrawler.Metadata;
+import org.apache.stormcrawler.bolt.FeedParserBolt;
+import org.apache.stormcrawler.parse.Outlink;
+import org.apache.stormcrawler.parse.ParseData;
+import org.apache.stormcrawler.parse.ParseFilter;
+import org.apache.stormcrawler.parse.ParseFilters;
+import org.apache.stormcrawler.parse.ParseResult;
+import org.apache.stormcrawler.persistence.Status;
+import org.apache.stormcrawler.util.ConfUtils;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Feed parser bolt, a replacement of the {@link FeedParserBolt} based on the {@link
+ * FeedStreamParser}: RSS and Atom feeds are parsed as a stream, items older than <code>
+ * feed.filter.hours.since.published</code> are skipped while parsing and the links of the remaining
+ * items are emitted right away. The outlink metadata (<code>feed.title</code>, <code>
+ * feed.publishedDate</code>, <code>feed.description</code>) is the same as set by the {@link
+ * FeedParserBolt}.
+ *
+ * <p>Parsing stops at items published before the watermark of the feed (see {@link
+ * NewsSiteMapParserBolt#pubDateWatermarkKey}), if enabled by <code>pubdate.watermark.window.hours
+ * </code>. The publication dates of new items are recorded in the publishing cadence of the feed
+ * (see {@link NewsSitemapScheduler}), if enabled by <code>scheduler.cadence.enabled</code>.
+ *
+ * <p>Because outlinks are emitted while parsing, the parse filters are applied to the feed document
+ * (e.g., to calculate the signature) but not to the outlinks.
+ */
+@SuppressWarnings("serial")
+public class NewsFeedParserBolt extends FeedParserBolt {
+
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(NewsFeedParserBolt.class);
+
+    /**
+     * Time (ISO-8601) of the last fetch on which the feed yielded recent items, the number of
+     * recent items is kept as {@link NewsSiteMapParserBolt#numLinksKey}. Used by the {@link
+     * NewsSitemapScheduler} to retire dead feeds.
+     */
+    public static final String lastLinksDateKey = "lastLinksDate";
+
+    private static ContentDetector contentDetector =
+            new ContentDetector(
+                    FeedDetectorBolt.contentClues, FeedDetectorBolt.maxOffsetContentGuess);
+
+    private boolean sniffContent = false;
+    private int filterHoursSincePub = -1;
+
+    /** Safety window in hours before the publication date watermark, -1 if disabled */
+    private int watermarkWindowHours = -1;
+
+    /** Whether publication dates are recorded in the publishing cadence */
+    private boolean cadenceEnabled = false;
+
+    private FeedStreamParser parser;
+
+    private ParseFilter parseFilters;
+
+    /** URLs recently discovered in this worker, null if deduplication is disabled */
+    private RecentURLs recentURLs;
+
+    private ReducedMetric averagedMetrics;
+
+    private MultiCountMetric parseMetrics;
+
+    @Override
+    public void execute(Tuple tuple) {
+        Metadata metadata = (Metadata) tuple.getValueByField("metadata");
+        byte[] content = tuple.getBinaryByField("content");
+        String url = tuple.getStringByField("url");
+
+        boolean isFeed = Boolean.valueOf(metadata.getFirstValue(isFeedKey));
+
+        if (!isFeed) {
+            String ct = metadata.getFirstValue(HttpHeaders.CONTENT_TYPE);
+            if (ct != null) {
+                for (String clue : FeedDetectorBolt.mimeTypeClues) {
+                    if (ct.contains(clue)) {
+                        isFeed = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (!isFeed && sniffContent && content != null) {
+            isFeed = contentDetector.matches(content);
+        }
+
+        if (!isFeed) {
+            // not a feed, just pass it on
+            collector.emit(tuple, tuple.getValues());
+            collector.ack(tuple);
+            return;
+        }
+        metadata.setValue(isFeedKey, "true");
+
+        long start = System.currentTimeMillis();
+        FeedStreamParser.Result result;
+        int[] emitted = {0, 0};
+        try {
+            URL sURL = new URL(url);
+            long now = System.currentTimeMillis();
+            Date watermark =
+                    NewsSiteMapParserBolt.getWatermark(metadata, watermarkWindowHours);
+            PublishingCadence.PublicationDates dates =
+                    cadenceEnabled
+                            ? new PublishingCadence.PublicationDates(metadata, Instant.now())
+                            : null;
+            FeedStreamParser.Handler handler =
+                    new FeedStreamParser.Handler() {
+                        @Override
+                        public void item(
+                                String link, String title, Date published, String description) {
+                            Outlink ol = filterOutlink(sURL, link, metadata);
+                            if (ol == null) {
+                                return;
+                            }
+                            if (recentURLs != null && recentURLs.add(ol.getTargetURL(), now)) {
+                                // recently discovered from a sitemap or another feed
+                                emitted[1]++;
+                                return;
+                            }
+                            Metadata md = ol.getMetadata();
+                            if (title != null) {
+                                md.setValue("feed.title", title);
+                            }
+                            if (published != null) {
+                                md.setValue("feed.publishedDate", published.toString());
+                            }
+                            if (description != null) {
+                                md.setValue("feed.description", description);
+                            }
+                            collector.emit(
+                                    Constants.StatusStreamName,
+                                    tuple,
+                                    new Values(ol.getTargetURL(), md, Status.DISCOVERED));
+                            emitted[0]++;
+                        }
+
+                        @Override
+                        public void published(Date published) {
+                            if (dates != null) {
+                                dates.add(published);
+                            }
+                        }
+                    };
+            result = parser.parse(content, handler, watermark);
+            if (result == null) {
+                throw new IllegalArgumentException("not an RSS or Atom feed");
+            }
+            if (dates != null) {
+                dates.finish();
+            }
+        } catch (Exception e) {
+            String errorMessage = "Exception while parsing " + url + ": " + e;
+            LOG.error(errorMessage);
+            metadata.setValue(Constants.STATUS_ERROR_SOURCE, "feed parsing");
+            metadata.setValue(Constants.STATUS_ERROR_MESSAGE, errorMessage);
+            collector.emit(
+                    Constants.StatusStreamName, tuple, new Values(url, metadata, Status.ERROR));
+            collector.ack(tuple);
+            return;
+        }
+        averagedMetrics.update(System.currentTimeMillis() - start);
+        parseMetrics.scope("items").incrBy(result.found);
+        parseMetrics.scope("items_outdated").incrBy(result.skipped);
+        parseMetrics.scope("links_emitted").incrBy(emitted[0]);
+        parseMetrics.scope("links_duplicate").incrBy(emitted[1]);
+        if (result.truncated) {
+            parseMetrics.scope("truncated").incr();
+        }
+        if (result.stopped) {
+            parseMetrics.scope("stopped_at_watermark").incr();
+        }
+        if (watermarkWindowHours != -1) {
+            NewsSiteMapParserBolt.updateWatermark(metadata, result.newest);
+        }
+
+        // track the number of recent items in the feed
+        int numRecent = result.found - result.skipped;
+        metadata.setValue(NewsSiteMapParserBolt.numLinksKey, String.valueOf(numRecent));
+        if (numRecent > 0) {
+            metadata.setValue(lastLinksDateKey, Instant.now().toString());
+        }
+        LOG.info(
+                "Feed (found {} items, {} skipped{}): {}",
+                result.found,
+                result.skipped,
+                result.truncated ? ", truncated" : (result.stopped ? ", stopped at watermark" : ""),
+                url);
+
+        // apply the parse filters to the feed document
+        try {
+            ParseResult parse = new ParseResult();
+            ParseData parseData = parse.get(url);
+            parseData.setMetadata(metadata);
+            parseFilters.filter(url, content, null, parse);
+        } catch (RuntimeException e) {
+            String errorMessage = "Exception while running parse filters on " + url + ": " + e;
+            LOG.error(errorMessage);
+            metadata.setValue(Constants.STATUS_ERROR_SOURCE, "content filtering");
+            metadata.setValue(Constants.STATUS_ERROR_MESSAGE, errorMessage);
+            collector.emit(
+                    Constants.StatusStreamName, tuple, new Values(url, metadata, Status.ERROR));
+            collector.ack(tuple);
+            return;
+        }
+
+        collector.emit(
+                Constants.StatusStreamName, tuple, new Values(url, metadata, Status.FETCHED));
+        collector.ack(tuple);
+    }
+
+    private boolean recentlyPublished(Date published) {
+        if (filterHoursSincePub == -1) {
+            return true;
+        }
+        Calendar rightNow = Calendar.getInstance();
+        rightNow.add(Calendar.HOUR, -filterHoursSincePub);
+        return !published.before(rightNow.getTime());
+    }
+
+    @Override
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public void prepare(Map stormConf, TopologyContext context, OutputCollector collect) {
+        super.prepare(stormConf, context, collect);
+        sniffContent = ConfUtils.getBoolean(stormConf, "feed.sniffContent", false);
+        filterHoursSincePub = ConfUtils.getInt(stormConf, "feed.filter.hours.since.published", -1);
+        watermarkWindowHours = ConfUtils.getInt(stormConf, "pubdate.watermark.window.hours", -1);
+        cadenceEnabled =
+                ConfUtils.getBoolean(stormConf, NewsSitemapScheduler.CADENCE_PARAM, false);
+        parser = new FeedStreamParser(this::recentlyPublished);
+        parseFilters = ParseFilters.fromConf(stormConf);
+        recentURLs = RecentURLs.get(stormConf);
+        averagedMetrics =
+                context.registerMetric(
+                        "news_feed_average_processing_time",
+                        new ReducedMetric(new MeanReducer()),
+                        30);
+        parseMetrics = context.registerMetric("news_feed_parse", new MultiCountMetric(), 60);
+    }
+}
@@ -29,24 +29,46 @@ import crawlercommons.sitemaps.extension.LinkAttributes;
 import crawlercommons.sitemaps.extension.NewsAttributes;
 import java.io.IOException;
 import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.HttpHeaders;
 import org.apache.storm.metric.api.MeanReducer;
+import org.apache.storm.metric.api.MultiCountMetric;
 import org.apache.storm.metric.api.ReducedMetric;
 import org.apache.storm.task.OutputCollector;
 import org.apache.storm.task.TopologyContext;
+import org.apache.storm.topology.OutputFieldsDeclarer;
+import org.apache.storm.tuple.Fields;
 import org.apache.storm.tuple.Tuple;
 import org.apache.storm.tuple.Values;
+import org.apache.storm.utils.TupleUtils;
 import org.apache.stormcrawler.Constants;
 import org.apache.stormcrawler.Metadata;
 import org.apache.stormcrawler.bolt.SiteMapParserBolt;
+import org.apache.stormcrawler.filtering.URLFilters;
 import org.apache.stormcrawler.parse.Outlink;
 import org.apache.stormcrawler.parse.ParseData;
 import org.apache.stormcrawler.parse.ParseFilter;
@@ -55,6 +77,7 @@ import org.apache.stormcrawler.parse.ParseResult;
 import org.apache.stormcrawler.persistence.DefaultScheduler;
 import org.apache.stormcrawler.persistence.Status;
 import org.apache.stormcrawler.util.ConfUtils;
+import org.apache.stormcrawler.util.MetadataTransfer;
 import org.slf4j.LoggerFactory;
 
 /**
@@ -91,6 +114,34 @@ public class NewsSiteMapParserBolt extends SiteMapParserBolt {
     /** Number of (recent) links extracted from the sitemap on the last parse. */
     public static final String numLinksKey = "numLinks";
 
+    /**
+     * Metadata keys of the content signature and its copy from the previous fetch, must match the
+     * parameters of the MD5SignatureParseFilter configured as parse filter.
+     */
+    public static final String signatureKey = "signature";
+
+    public static final String signatureOldKey = "signatureOld";
+
+    /**
+     * Fingerprints of the links found on the last parse (see {@link SeenURLs}), only links not seen
+     * before are emitted.
+     */
+    public static final String seenLinksKey = "seenLinks";
+
+    /**
+     * Direct stream of batches of discovered links, one batch per status updater task, unpacked by
+     * the {@link NewsStatusUpdaterBolt}. Used instead of the status stream if <code>
+     * sitemap.status.batch</code> is true.
+     */
+    public static final String STATUS_BATCH_STREAM = "status_batch";
+
+    /**
+     * Most recent publication date (ISO-8601) found in a news sitemap or feed, parsing stops at
+     * entries published before this date minus a safety window (<code>
+     * pubdate.watermark.window.hours</code>).
+     */
+    public static final String pubDateWatermarkKey = "pubDateWatermark";
+
     private static final org.slf4j.Logger LOG =
             LoggerFactory.getLogger(NewsSiteMapParserBolt.class);
 
@@ -120,8 +171,8 @@ public class NewsSiteMapParserBolt extends SiteMapParserBolt {
         }
     }
 
+    /** feed clues followed by the sitemap clues, detected in a single pass */
     private static ContentDetector contentDetector;
-    private static ContentDetector rssContentDetector;
 
     private boolean strictModeSitemaps = false;
     private boolean allowPartialSitemaps = true;
@@ -132,54 +183,94 @@ public class NewsSiteMapParserBolt extends SiteMapParserBolt {
 
     private ReducedMetric averagedMetrics;
 
+    /** Skip parsing if the content signature is the same as on the last fetch */
+    private boolean skipUnchanged = true;
+
+    private MultiCountMetric parseMetrics;
+
+    /** Max. number of links recorded as seen, 0 if links are emitted on every parse */
+    private int maxSeenLinks = 2000;
+
+    /** Safety window in hours before the publication date watermark, -1 if disabled */
+    private int watermarkWindowHours = -1;
+
+    /** Whether publication dates are recorded in the publishing cadence */
+    private boolean cadenceEnabled = false;
+
+    /**
+     * Whether the metadata transferred from the sitemap to its outlinks is created once and shared
+     * by all outlinks, see {@link OutlinkCollector#outlink(String, String...)}
+     */
+    private boolean shareOutlinkMetadata = true;
+
+    private URLFilters urlFilters;
+
+    /** URLs recently discovered in this worker, null if deduplication is disabled */
+    private RecentURLs recentURLs;
+
+    private MetadataTransfer metadataTransfer;
+
     /** Delay in minutes used for scheduling sub-sitemaps * */
     private int scheduleSitemapsWithDelay = -1;
 
+    /** Number of most recently modified sub-sitemaps scheduled without delay */
+    private int immediateSubSitemaps = 10;
+
+    /** Max. number of sub-sitemaps emitted per sitemap index (fan-out budget) */
+    private int maxSubSitemaps = 1000;
+
+    /** Parser for XML sitemaps, null if the crawler-commons parser is used for all sitemaps */
+    private SiteMapStreamParser streamingParser;
+
+    /**
+     * Pool to parse large sitemaps without blocking the executor thread, null if all sitemaps are
+     * parsed synchronously
+     */
+    private ThreadPoolExecutor parserPool;
+
+    /** Sitemaps smaller than this are parsed in the executor thread (fast lane) */
+    private int fastLaneMaxBytes = 262144;
+
+    /** Sitemaps parsed in the pool, waiting to be emitted from the executor thread */
+    private final Queue<ParseTask> parsed = new ConcurrentLinkedQueue<>();
+
+    /** Number of sitemaps queued or being parsed in the pool */
+    private int pending = 0;
+
+    private ReducedMetric waitTimeMetrics;
+
+    /**
+     * Tasks of the status updater the discovered links are batched for, null if every link is
+     * emitted as single tuple
+     */
+    private List<Integer> statusTasks;
+
     @Override
     public void execute(Tuple tuple) {
+        emitParsed();
+        if (TupleUtils.isTick(tuple)) {
+            return;
+        }
+
         Metadata metadata = (Metadata) tuple.getValueByField("metadata");
 
         // TODO check that we have the right number of fields?
         byte[] content = tuple.getBinaryByField("content");
         String url = tuple.getStringByField("url");
 
-        boolean isSitemap = Boolean.valueOf(metadata.getFirstValue(SiteMapParserBolt.isSitemapKey));
-        boolean isNewsSitemap = Boolean.valueOf(metadata.getFirstValue(isSitemapNewsKey));
-        boolean isSitemapIndex = Boolean.valueOf(metadata.getFirstValue(isSitemapIndexKey));
-        boolean isSitemapVerified = Boolean.valueOf(metadata.getFirstValue(isSitemapVerifiedKey));
-
-        if (sniffContent) {
+        if (sniffContent && !ContentRouterBolt.SITEMAP_STREAM.equals(tuple.getSourceStreamId())) {
+            // content already sniffed by the ContentRouterBolt if on its sitemap stream
             SitemapType type = detectContent(url, content);
             if (type != null) {
-                isSitemap = true;
-                metadata.setValue(SiteMapParserBolt.isSitemapKey, "true");
-                if (type == SitemapType.NEWS) {
-                    isNewsSitemap = true;
-                    metadata.setValue(isSitemapNewsKey, "true");
-                } else if (type == SitemapType.INDEX) {
-                    isSitemapIndex = true;
-                    if (isNewsSitemap) {
-                        metadata.setValue(isSitemapNewsKey, "false");
-                    }
-                    isNewsSitemap = false;
-                    metadata.setValue(isSitemapIndexKey, "true");
-                } else if (isSitemapVerified) {
-                    // do not reset metadata for verified sitemaps
-                } else {
-                    // sitemaps may change: reset wrong metadata values from
-                    // previous fetches
-                    if (isNewsSitemap) {
-                        metadata.setValue(isSitemapNewsKey, "false");
-                    }
-                    if (isSitemapIndex) {
-                        metadata.setValue(isSitemapIndexKey, "false");
-                    }
-                    isNewsSitemap = false;
-                    isSitemapIndex = false;
-                }
+                setSitemapType(metadata, type);
             }
         }
 
+        boolean isSitemap = Boolean.valueOf(metadata.getFirstValue(SiteMapParserBolt.isSitemapKey));
+        boolean isNewsSitemap = Boolean.valueOf(metadata.getFirstValue(isSitemapNewsKey));
+        boolean isSitemapIndex = Boolean.valueOf(metadata.getFirstValue(isSitemapIndexKey));
+        boolean isSitemapVerified = Boolean.valueOf(metadata.getFirstValue(isSitemapVerifiedKey));
+
         if (isNewsSitemap || isSitemapIndex || isSitemapVerified) {
             /*
              * remove the isSitemap key from metadata to avoid that the default sitemap
@@ -202,16 +293,111 @@ public class NewsSiteMapParserBolt extends SiteMapParserBolt {
             return;
         }
 
-        String ct = metadata.getFirstValue(HttpHeaders.CONTENT_TYPE);
+        if (skipUnchanged && isUnchanged(content, metadata)) {
+            /*
+             * same content as on the last fetch: all links have been emitted before, keep the
+             * number of links and mark the sitemap as fetched
+             */
+            LOG.info("Sitemap not changed since last fetch, skipped parsing: {}", url);
+            parseMetrics.scope("skipped_unchanged").incr();
+            collector.emit(
+                    Constants.StatusStreamName, tuple, new Values(url, metadata, Status.FETCHED));
+            collector.ack(tuple);
+            return;
+        }
+        parseMetrics.scope("parsed").incr();
 
-        AbstractSiteMap sitemap;
-        List<Outlink> outlinks = new ArrayList<>();
+        ParseTask task = new ParseTask(tuple, url, content, metadata, isSitemapVerified);
+        if (parserPool != null && content != null && content.length > fastLaneMaxBytes) {
+            // large sitemap: parse in the pool, emitted by emitParsed() once parsed
+            task.queued = System.currentTimeMillis();
+            try {
+                parserPool.execute(task);
+                pending++;
+                parseMetrics.scope("async").incr();
+                return;
+            } catch (RejectedExecutionException e) {
+                // queue is full, parse in the executor thread
+                task.queued = -1;
+                parseMetrics.scope("async_rejected").incr();
+            }
+        }
+        task.run();
+        emit(task);
+    }
 
-        try {
-            sitemap = parseSiteMap(url, content, ct, metadata, outlinks);
-        } catch (Exception e) {
+    /** A sitemap to be parsed, either in the executor thread or in the parser pool */
+    private class ParseTask implements Runnable {
+        final Tuple tuple;
+        final String url;
+        final byte[] content;
+        final Metadata metadata;
+        final boolean isSitemapVerified;
+        final List<Outlink> outlinks = new ArrayList<>();
+
+        /** time when queued for asynchronous parsing, -1 if parsed synchronously */
+        long queued = -1;
+
+        long waitTime;
+        long parseTime;
+        boolean isIndex;
+        boolean stopped;
+        Exception error;
+
+        ParseTask(
+                Tuple tuple,
+                String url,
+                byte[] content,
+                Metadata metadata,
+                boolean isSitemapVerified) {
+            this.tuple = tuple;
+            this.url = url;
+            this.content = content;
+            this.metadata = metadata;
+            this.isSitemapVerified = isSitemapVerified;
+        }
+
+        @Override
+        public void run() {
+            if (queued != -1) {
+                waitTime = System.currentTimeMillis() - queued;
+            }
+            String ct = metadata.getFirstValue(HttpHeaders.CONTENT_TYPE);
+            long start = System.currentTimeMillis();
+            try {
+                SiteMapStreamParser.Result result =
+                        parseSiteMap(url, content, ct, metadata, outlinks);
+                isIndex = result.isIndex;
+                stopped = result.stopped;
+            } catch (Exception e) {
+                error = e;
+            }
+            parseTime = System.currentTimeMillis() - start;
+            if (queued != -1) {
+                parsed.add(this);
+            }
+        }
+    }
+
+    /** Emit and ack the sitemaps parsed asynchronously, called from the executor thread */
+    private void emitParsed() {
+        ParseTask task;
+        while ((task = parsed.poll()) != null) {
+            pending--;
+            waitTimeMetrics.update(task.waitTime);
+            emit(task);
+        }
+    }
+
+    private void emit(ParseTask task) {
+        Tuple tuple = task.tuple;
+        String url = task.url;
+        Metadata metadata = task.metadata;
+        List<Outlink> outlinks = task.outlinks;
+
+        if (task.error != null) {
             // exception while parsing the sitemap
-            String errorMessage = "Exception while parsing " + url + ": " + e;
+            String errorMessage = "Exception while parsing " + url + ": " + task.error;
             LOG.error(errorMessage);
             // send to status stream in case another component wants to update
             // its status
@@ -224,6 +410,12 @@ public class NewsSiteMapParserBolt extends SiteMapParserBolt {
             return;
         }
 
+        // metrics are updated here in the executor thread, they are not thread-safe
+        averagedMetrics.update(task.parseTime);
+        if (task.stopped) {
+            parseMetrics.scope("stopped_at_watermark").incr();
+        }
+
         // apply the parse filters if any to the current document
         try {
             ParseResult parse = new ParseResult();
@@ -231,7 +423,7 @@ public class NewsSiteMapParserBolt extends SiteMapParserBolt {
             ParseData parseData = parse.get(url);
             parseData.setMetadata(metadata);
 
-            parseFilters.filter(url, content, null, parse);
+            parseFilters.filter(url, task.content, null, parse);
         } catch (RuntimeException e) {
             String errorMessage = "Exception while running parse filters on " + url + ": " + e;
             LOG.error(errorMessage);
@@ -244,26 +436,70 @@ public class NewsSiteMapParserBolt extends SiteMapParserBolt {
         }
 
         // check whether parsed sitemap is index
-        if (sitemap.isIndex()) {
-            isSitemapIndex = true;
+        boolean isSitemapIndex = task.isIndex;
+        if (isSitemapIndex) {
             metadata.setValue(isSitemapIndexKey, "true");
         } else {
-            isSitemapIndex = false;
             metadata.remove(isSitemapIndexKey);
         }
 
-        // send outlinks to status stream
+        // send outlinks to status stream, skip links seen on the previous parse
+        SeenURLs seen = null;
+        if (maxSeenLinks > 0) {
+            seen = new SeenURLs(metadata.getFirstValue(seenLinksKey));
+        }
+        int numSeen = 0;
+        int numDuplicates = 0;
+        long now = System.currentTimeMillis();
+        Values[] batches = null;
+        if (statusTasks != null) {
+            batches = new Values[statusTasks.size()];
+        }
         for (Outlink ol : outlinks) {
+            if (seen != null && seen.contains(ol.getTargetURL())) {
+                seen.add(ol.getTargetURL());
+                numSeen++;
+                continue;
+            }
+            if (recentURLs != null && !isSitemapIndex && recentURLs.add(ol.getTargetURL(), now)) {
+                // recently discovered from another sitemap or feed, or a false positive: not
+                // recorded as seen, so that it is checked again on the next parse
+                numDuplicates++;
+                continue;
+            }
+            if (seen != null) {
+                seen.add(ol.getTargetURL());
+            }
             if (isSitemapIndex) {
                 ol.getMetadata().setValue(isSitemapKey, "true");
-                if (isSitemapVerified) {
+                if (task.isSitemapVerified) {
                     // mark sitemaps from verified sitemap index also as "verified"
                     ol.getMetadata().setValue(isSitemapVerifiedKey, "true");
                 }
             }
+            if (batches != null) {
+                addToBatch(batches, ol);
+                continue;
+            }
             Values v = new Values(ol.getTargetURL(), ol.getMetadata(), Status.DISCOVERED);
             collector.emit(Constants.StatusStreamName, tuple, v);
         }
+        if (batches != null) {
+            for (int i = 0; i < batches.length; i++) {
+                if (batches[i] != null) {
+                    collector.emitDirect(
+                            statusTasks.get(i), STATUS_BATCH_STREAM, tuple, batches[i]);
+                    parseMetrics.scope("status_batches").incr();
+                }
+            }
+        }
+
+        if (seen != null) {
+            metadata.setValue(seenLinksKey, seen.encode(maxSeenLinks));
+            parseMetrics.scope("links_seen").incrBy(numSeen);
+        }
+        parseMetrics.scope("links_duplicate").incrBy(numDuplicates);
+        parseMetrics.scope("links_emitted").incrBy(outlinks.size() - numSeen - numDuplicates);
 
         // track the number of links found in the sitemap
         metadata.setValue(numLinksKey, String.valueOf(outlinks.size()));
@@ -276,30 +512,136 @@ public class NewsSiteMapParserBolt extends SiteMapParserBolt {
 
     public SitemapType detectContent(String url, byte[] content) {
         // try to detect content based on the first n bytes
-        // works for XML and non-compressed documents
-        // TODO: implement check for compressed XML
+        // (of the inflated content if compressed)
+        BitSet matches = contentDetector.getMatches(content);
+        int numFeedClues = FeedDetectorBolt.contentClues.length;
         // First check if it's an RSS or atom feed - if so, return null
-        if (rssContentDetector.getFirstMatch(content) >= 0) {
+        if (matches.nextSetBit(0) != -1 && matches.nextSetBit(0) < numFeedClues) {
             LOG.info("{} detected as feed - skipping", url);
             return null;
         }
 
-        int match = contentDetector.getFirstMatch(content);
+        int match = matches.nextSetBit(numFeedClues);
         if (match >= 0) {
             // a sitemap, need to detect type of sitemap
-            if (match <= contentCluesSitemapNewsMatchUpTo) {
+            SitemapType type = getSitemapType(match - numFeedClues);
+            if (type == SitemapType.NEWS) {
                 LOG.info("{} detected as news sitemap based on content", url);
-                return SitemapType.NEWS;
-            } else if (match <= contentCluesSitemapIndexMatchUpTo) {
+            } else if (type == SitemapType.INDEX) {
                 LOG.info("{} detected as sitemap index based on content", url);
-                return SitemapType.INDEX;
-            } else {
-                return SitemapType.SITEMAP;
             }
+            return type;
         }
         return null;
     }
 
+    /** @return type of the sitemap by the index of the first matched {@link #contentClues} */
+    static SitemapType getSitemapType(int match) {
+        if (match <= contentCluesSitemapNewsMatchUpTo) {
+            return SitemapType.NEWS;
+        } else if (match <= contentCluesSitemapIndexMatchUpTo) {
+            return SitemapType.INDEX;
+        }
+        return SitemapType.SITEMAP;
+    }
+
+    /**
+     * Mark the type of sitemap detected from the content in the metadata. Sitemaps may change,
+     * wrong values from previous fetches are reset, except for verified sitemaps.
+     */
+    static void setSitemapType(Metadata metadata, SitemapType type) {
+        metadata.setValue(SiteMapParserBolt.isSitemapKey, "true");
+        boolean isNewsSitemap = Boolean.valueOf(metadata.getFirstValue(isSitemapNewsKey));
+        boolean isSitemapIndex = Boolean.valueOf(metadata.getFirstValue(isSitemapIndexKey));
+        if (type == SitemapType.NEWS) {
+            metadata.setValue(isSitemapNewsKey, "true");
+        } else if (type == SitemapType.INDEX) {
+            if (isNewsSitemap) {
+                metadata.setValue(isSitemapNewsKey, "false");
+            }
+            metadata.setValue(isSitemapIndexKey, "true");
+        } else if (Boolean.valueOf(metadata.getFirstValue(isSitemapVerifiedKey))) {
+            // do not reset metadata for verified sitemaps
+        } else {
+            // sitemaps may change: reset wrong metadata values from
+            // previous fetches
+            if (isNewsSitemap) {
+                metadata.setValue(isSitemapNewsKey, "false");
+            }
+            if (isSitemapIndex) {
+                metadata.setValue(isSitemapIndexKey, "false");
+            }
+        }
+    }
+
+    /**
+     * Check whether the content has the same MD5 signature as on the last fetch, provided that the
+     * sitemap has been parsed successfully before. If so, the signature metadata is updated the
+     * same way as done by the MD5SignatureParseFilter, so that the scheduler sees the sitemap as
+     * unchanged.
+     */
+    static boolean isUnchanged(byte[] content, Metadata metadata) {
+        String signature = metadata.getFirstValue(signatureKey);
+        if (signature == null || content == null || metadata.getFirstValue(numLinksKey) == null) {
+            return false;
+        }
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            return false;
+        }
+        if (!signature.equals(HexFormat.of().formatHex(md5.digest(content)))) {
+            return false;
+        }
+        metadata.setValue(signatureOldKey, signature);
+        return true;
+    }
+
+    /**
+     * @param windowHours safety window in hours, -1 if the watermark is disabled
+     * @return the publication date watermark minus the safety window, null if there is no watermark
+     */
+    static Date getWatermark(Metadata metadata, int windowHours) {
+        String watermark = metadata.getFirstValue(pubDateWatermarkKey);
+        if (windowHours == -1 || watermark == null) {
+            return null;
+        }
+        try {
+            return Date.from(Instant.parse(watermark).minus(windowHours, ChronoUnit.HOURS));
+        } catch (DateTimeParseException e) {
+            LOG.debug("Invalid publication date watermark: {}", watermark);
+            return null;
+        }
+    }
+
+    /**
+     * Move the publication date watermark forward to the most recent publication date found.
+     * Publication dates in the future are capped to the current time, otherwise a single wrong date
+     * would make all entries appear as seen.
+     */
+    static void updateWatermark(Metadata metadata, Date newest) {
+        if (newest == null) {
+            return;
+        }
+        Instant latest = newest.toInstant();
+        Instant now = Instant.now();
+        if (latest.isAfter(now)) {
+            latest = now;
+        }
+        String watermark = metadata.getFirstValue(pubDateWatermarkKey);
+        if (watermark != null) {
+            try {
+                if (!latest.isAfter(Instant.parse(watermark))) {
+                    return;
+                }
+            } catch (DateTimeParseException e) {
+                // overwrite
+            }
+        }
+        metadata.setValue(pubDateWatermarkKey, latest.toString());
+    }
+
     private boolean recentlyModified(Date lastModified) {
         if (lastModified != null && filterHoursSinceModified != -1) {
             // filter based on the published date
@@ -312,7 +654,14 @@ public class NewsSiteMapParserBolt extends SiteMapParserBolt {
         return true;
     }
 
-    protected AbstractSiteMap parseSiteMap(
+    /**
+     * Parse a sitemap or sitemap index and collect the links to (recently modified) pages or
+     * sub-sitemaps. XML sitemaps are parsed as a stream (see {@link SiteMapStreamParser}), other
+     * formats by the crawler-commons sitemap parser.
+     *
+     * @return the result of parsing, incl. whether the sitemap is a sitemap index
+     */
+    protected SiteMapStreamParser.Result parseSiteMap(
             String url,
             byte[] content,
             String contentType,
@@ -320,6 +669,39 @@ public class NewsSiteMapParserBolt extends SiteMapParserBolt {
             List<Outlink> links)
             throws UnknownFormatException, IOException {
 
+        URL sURL = new URL(url);
+        PublishingCadence.PublicationDates dates =
+                cadenceEnabled
+                        ? new PublishingCadence.PublicationDates(parentMetadata, Instant.now())
+                        : null;
+        OutlinkCollector collector = new OutlinkCollector(sURL, parentMetadata, links, dates);
+
+        if (streamingParser != null) {
+            Date watermark = getWatermark(parentMetadata, watermarkWindowHours);
+            SiteMapStreamParser.Result result =
+                    streamingParser.parse(content, collector, watermark);
+            if (result != null) {
+                LOG.info(
+                        "{} (found {} {}, {} skipped{}): {}",
+                        result.isIndex ? "Sitemap index" : "Sitemap",
+                        result.found,
+                        result.isIndex ? "sitemaps" : "links",
+                        result.skipped,
+                        result.truncated
+                                ? ", truncated"
+                                : (result.stopped ? ", stopped at watermark" : ""),
+                        url);
+                if (watermarkWindowHours != -1) {
+                    updateWatermark(parentMetadata, result.newest);
+                }
+                collector.finish();
+                if (dates != null) {
+                    dates.finish();
+                }
+                return result;
+            }
+        }
+
         SiteMapParser parser = new SiteMapParser(strictModeSitemaps, allowPartialSitemaps);
         parser.setStrictNamespace(true);
         parser.addAcceptedNamespace(Namespace.SITEMAP_LEGACY);
@@ -328,8 +710,6 @@ public class NewsSiteMapParserBolt extends SiteMapParserBolt {
         parser.enableExtension(Extension.NEWS);
         parser.enableExtension(Extension.LINKS);
 
-        URL sURL = new URL(url);
-        long start = System.currentTimeMillis();
         AbstractSiteMap siteMap;
         // let the parser guess what the mimetype is
         if (StringUtils.isBlank(contentType) || contentType.contains("octet-stream")) {
@@ -337,8 +717,6 @@ public class NewsSiteMapParserBolt extends SiteMapParserBolt {
         } else {
             siteMap = parser.parseSiteMap(contentType, content, sURL);
         }
-        long end = System.currentTimeMillis();
-        averagedMetrics.update(end - start);
 
         int linksFound = 0;
         int linksSkippedNotRecentlyModified = 0;
@@ -346,7 +724,6 @@ public class NewsSiteMapParserBolt extends SiteMapParserBolt {
         if (siteMap.isIndex()) {
             SiteMapIndex smi = (SiteMapIndex) siteMap;
             Collection<AbstractSiteMap> subsitemaps = smi.getSitemaps();
-            int delay = 0;
             /*
              * keep the subsitemaps as outlinks they will be fetched and parsed in the
              * following steps
@@ -358,6 +735,9 @@ public class NewsSiteMapParserBolt extends SiteMapParserBolt {
                 String target = asm.getUrl().toExternalForm();
 
                 Date lastModified = asm.getLastModified();
+                if (lastModified != null) {
+                    collector.published(lastModified);
+                }
                 if (!recentlyModified(lastModified)) {
                     linksSkippedNotRecentlyModified++;
                     LOG.debug(
@@ -368,30 +748,7 @@ public class NewsSiteMapParserBolt extends SiteMapParserBolt {
                     continue;
                 }
 
-                Outlink ol =
-                        filterOutlink(
-                                sURL,
-                                target,
-                                parentMetadata,
-                                isSitemapKey,
-                                "true",
-                                isSitemapNewsKey,
-                                "false");
-                if (ol == null) {
-                    continue;
-                }
-
-                // add a delay
-                if (this.scheduleSitemapsWithDelay > 0) {
-                    if (delay > 0) {
-                        ol.getMetadata()
-                                .setValue(DefaultScheduler.DELAY_METADATA, Integer.toString(delay));
-                    }
-                    delay += this.scheduleSitemapsWithDelay;
-                }
-
-                links.add(ol);
-                LOG.debug("{} : [sitemap] {}", url, target);
+                collector.sitemap(target, lastModified);
             }
             LOG.info(
                     "Sitemap index (found {} sitemaps, {} skipped): {}",
@@ -417,6 +774,19 @@ public class NewsSiteMapParserBolt extends SiteMapParserBolt {
                 String target = smurl.getUrl().toExternalForm();
 
                 Date lastModified = smurl.getLastModified();
+                Date published = lastModified;
+                ExtensionMetadata[] newsAttrs = smurl.getAttributesForExtension(Extension.NEWS);
+                if (newsAttrs != null) {
+                    for (ExtensionMetadata attr : newsAttrs) {
+                        Date pubDate = ((NewsAttributes) attr).getPublicationDate();
+                        if (pubDate != null) {
+                            published = pubDate;
+                        }
+                    }
+                }
+                if (published != null) {
+                    collector.published(published);
+                }
                 if (!recentlyModified(lastModified)) {
                     // filter based on the published date
                     linksSkippedNotRecentlyModified++;
@@ -427,7 +797,6 @@ public class NewsSiteMapParserBolt extends SiteMapParserBolt {
                             filterHoursSinceModified);
                     continue;
                 }
-                ExtensionMetadata[] newsAttrs = smurl.getAttributesForExtension(Extension.NEWS);
                 if (newsAttrs != null) {
                     // filter based on news publication date
                     // <news:publication_date>2008-12-23</news:publication_date>
@@ -448,49 +817,19 @@ public class NewsSiteMapParserBolt extends SiteMapParserBolt {
                 }
 
                 // add alternative language links
+                List<String> alternates = new ArrayList<>();
                 ExtensionMetadata[] linkAttrs = smurl.getAttributesForExtension(Extension.LINKS);
                 if (linkAttrs != null) {
                     for (ExtensionMetadata attr : linkAttrs) {
                         LinkAttributes linkAttr = (LinkAttributes) attr;
                         URL href = linkAttr.getHref();
-                        if (href == null) {
-                            continue;
-                        }
-                        String hrefStr = href.toString();
-                        if (hrefStr.equals(target)) {
-                            // skip href links duplicating sitemap URL
-                            continue;
-                        }
-                        Outlink ol =
-                                filterOutlink(
-                                        sURL,
-                                        hrefStr,
-                                        parentMetadata,
-                                        isSitemapKey,
-                                        "false",
-                                        isSitemapNewsKey,
-                                        "false");
-                        if (ol != null) {
-                            links.add(ol);
+                        if (href != null) {
+                            alternates.add(href.toString());
                         }
                     }
                 }
 
-                Outlink ol =
-                        filterOutlink(
-                                sURL,
-                                target,
-                                parentMetadata,
-                                isSitemapKey,
-                                "false",
-                                isSitemapNewsKey,
-                                "false");
-                if (ol == null) {
-                    continue;
-                }
-
-                links.add(ol);
-                LOG.debug("{} : [sitemap] {}", url, target);
+                collector.url(target, lastModified, alternates);
             }
             LOG.info(
                     "Sitemap (found {} links, {} skipped): {}",
@@ -499,7 +838,188 @@ public class NewsSiteMapParserBolt extends SiteMapParserBolt {
                     url);
         }
 
-        return siteMap;
+        collector.finish();
+        if (dates != null) {
+            dates.finish();
+        }
+        SiteMapStreamParser.Result result = new SiteMapStreamParser.Result();
+        result.isIndex = siteMap.isIndex();
+        result.found = linksFound;
+        result.skipped = linksSkippedNotRecentlyModified;
+        return result;
+    }
+
+    /**
+     * Delay (in minutes) for a sub-sitemap of a sitemap index: no delay for the first (most
+     * recently modified) sub-sitemaps, then the delay grows with the logarithm of the rank, e.g.,
+     * with a delay of 15 min. and 10 sub-sitemaps fetched immediately, the 50,000th sub-sitemap is
+     * delayed by 4 hours.
+     */
+    int subSitemapDelay(int rank) {
+        if (scheduleSitemapsWithDelay <= 0 || rank < immediateSubSitemaps) {
+            return 0;
+        }
+        int log2 = 31 - Integer.numberOfLeadingZeros(rank - immediateSubSitemaps + 1);
+        return scheduleSitemapsWithDelay * (1 + log2);
+    }
+
+    /**
+     * Add a link to the batch for the status updater task it is sent to, chosen in the same way as
+     * by the fields grouping on the URL
+     */
+    @SuppressWarnings("unchecked")
+    private void addToBatch(Values[] batches, Outlink ol) {
+        String target = ol.getTargetURL();
+        int task = TupleUtils.chooseTaskIndex(Collections.singletonList(target), batches.length);
+        if (batches[task] == null) {
+            batches[task] = new Values(new ArrayList<String>(), new ArrayList<Metadata>());
+        }
+        ((List<String>) batches[task].get(0)).add(target);
+        ((List<Metadata>) batches[task].get(1)).add(ol.getMetadata());
+    }
+
+    /** Turns the entries of a sitemap into outlinks */
+    private class OutlinkCollector implements SiteMapStreamParser.Handler {
+
+        private final URL sURL;
+        private final Metadata parentMetadata;
+        private final List<Outlink> links;
+
+        /** sub-sitemaps of a sitemap index, added to the links by {@link #finish()} */
+        private final List<Outlink> sitemaps = new ArrayList<>();
+
+        private final List<Long> sitemapsModified = new ArrayList<>();
+
+        /** metadata transferred from the sitemap, shared by the metadata of all outlinks */
+        private Metadata transferred;
+
+        /** publication dates recorded in the publishing cadence, null if disabled */
+        private final PublishingCadence.PublicationDates dates;
+
+        OutlinkCollector(
+                URL sURL,
+                Metadata parentMetadata,
+                List<Outlink> links,
+                PublishingCadence.PublicationDates dates) {
+            this.sURL = sURL;
+            this.parentMetadata = parentMetadata;
+            this.links = links;
+            this.dates = dates;
+        }
+
+        /**
+         * Filter a link and create the outlink. Same as {@link #filterOutlink(URL, String,
+         * Metadata, String...)}, but if enabled the metadata transferred from the sitemap is
+         * created only once: the metadata of every outlink is a shallow copy sharing the values
+         * with all other outlinks. Values are never modified in place, {@link Metadata#setValue}
+         * and {@link Metadata#addValue} replace the values array, so that no outlink is affected by
+         * a modification of another one.
+         */
+        private Outlink outlink(String target, String... customKeyVals) {
+            if (!shareOutlinkMetadata) {
+                return filterOutlink(sURL, target, parentMetadata, customKeyVals);
+            }
+            // links in sitemaps are absolute, no need to resolve them
+            String filtered = urlFilters.filter(sURL, parentMetadata, target);
+            if (filtered == null) {
+                return null;
+            }
+            if (transferred == null) {
+                transferred =
+                        metadataTransfer.getMetaForOutlink(
+                                filtered, sURL.toExternalForm(), parentMetadata);
+            }
+            Metadata metadata = new Metadata(new HashMap<>(transferred.asMap()));
+            for (int i = 0; i < customKeyVals.length; i += 2) {
+                metadata.addValue(customKeyVals[i], customKeyVals[i + 1]);
+            }
+            Outlink ol = new Outlink(filtered);
+            ol.setMetadata(metadata);
+            return ol;
+        }
+
+        /**
+         * Add the sub-sitemaps to the links, the most recently modified ones first (sitemaps
+         * without modification date last, otherwise in document order). Only the first sub-sitemaps
+         * are scheduled for immediate fetching, the delay added to the remaining ones grows
+         * logarithmically by their rank. Sub-sitemaps exceeding the fan-out budget are skipped.
+         */
+        void finish() {
+            if (sitemaps.isEmpty()) {
+                return;
+            }
+            Integer[] order = new Integer[sitemaps.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            // stable sort, newest first
+            Arrays.sort(
+                    order,
+                    (a, b) -> Long.compare(sitemapsModified.get(b), sitemapsModified.get(a)));
+
+            int n = Math.min(order.length, maxSubSitemaps);
+            for (int rank = 0; rank < n; rank++) {
+                Outlink ol = sitemaps.get(order[rank]);
+                int delay = subSitemapDelay(rank);
+                if (delay > 0) {
+                    ol.getMetadata()
+                            .setValue(DefaultScheduler.DELAY_METADATA, Integer.toString(delay));
+                }
+                links.add(ol);
+            }
+            if (n < order.length) {
+                LOG.info(
+                        "{} : skipped {} least recently modified sub-sitemaps (max. {})",
+                        sURL,
+                        order.length - n,
+                        maxSubSitemaps);
+            }
+            sitemaps.clear();
+            sitemapsModified.clear();
+        }
+
+        @Override
+        public void sitemap(String target, Date lastModified) {
+            Outlink ol = outlink(target, isSitemapKey, "true", isSitemapNewsKey, "false");
+            if (ol == null) {
+                return;
+            }
+
+            // ordered and delayed in finish()
+            sitemaps.add(ol);
+            sitemapsModified.add(lastModified == null ? Long.MIN_VALUE : lastModified.getTime());
+            LOG.debug("{} : [sitemap] {}", sURL, target);
+        }
+
+        @Override
+        public void url(String target, Date lastModified, List<String> alternates) {
+            // add alternative language links
+            for (String href : alternates) {
+                if (href.equals(target)) {
+                    // skip href links duplicating sitemap URL
+                    continue;
+                }
+                Outlink ol = outlink(href, isSitemapKey, "false", isSitemapNewsKey, "false");
+                if (ol != null) {
+                    links.add(ol);
+                }
+            }
+
+            Outlink ol = outlink(target, isSitemapKey, "false", isSitemapNewsKey, "false");
+            if (ol == null) {
+                return;
+            }
+
+            links.add(ol);
+            LOG.debug("{} : [sitemap] {}", sURL, target);
+        }
+
+        @Override
+        public void published(Date published) {
+            if (dates != null) {
+                dates.add(published);
+            }
+        }
     }
 
     @Override
@@ -511,8 +1031,12 @@ public class NewsSiteMapParserBolt extends SiteMapParserBolt {
                 ConfUtils.getInt(stormConf, "sitemap.filter.hours.since.modified", -1);
         parseFilters = ParseFilters.fromConf(stormConf);
         int maxOffsetGuess = ConfUtils.getInt(stormConf, "sitemap.offset.guess", 1024);
-        contentDetector = new ContentDetector(NewsSiteMapParserBolt.contentClues, maxOffsetGuess);
-        rssContentDetector = new ContentDetector(FeedDetectorBolt.contentClues, maxOffsetGuess);
+        String[][] clues =
+                Stream.concat(
+                                Arrays.stream(FeedDetectorBolt.contentClues),
+                                Arrays.stream(NewsSiteMapParserBolt.contentClues))
+                        .toArray(String[][]::new);
+        contentDetector = new ContentDetector(clues, maxOffsetGuess);
         averagedMetrics =
                 context.registerMetric(
                         "news_sitemap_average_processing_time",
@@ -520,5 +1044,96 @@ public class NewsSiteMapParserBolt extends SiteMapParserBolt {
                         30);
         scheduleSitemapsWithDelay =
                 ConfUtils.getInt(stormConf, "sitemap.schedule.delay", scheduleSitemapsWithDelay);
+        immediateSubSitemaps =
+                ConfUtils.getInt(stormConf, "sitemap.index.immediate", immediateSubSitemaps);
+        maxSubSitemaps = ConfUtils.getInt(stormConf, "sitemap.index.max.sitemaps", maxSubSitemaps);
+        skipUnchanged = ConfUtils.getBoolean(stormConf, "sitemap.skip.unchanged", skipUnchanged);
+        parseMetrics = context.registerMetric("news_sitemap_parse", new MultiCountMetric(), 60);
+        maxSeenLinks = ConfUtils.getInt(stormConf, "sitemap.seen.links.max", maxSeenLinks);
+        watermarkWindowHours =
+                ConfUtils.getInt(stormConf, "pubdate.watermark.window.hours", watermarkWindowHours);
+        cadenceEnabled =
+                ConfUtils.getBoolean(stormConf, NewsSitemapScheduler.CADENCE_PARAM, false);
+        if (ConfUtils.getBoolean(stormConf, "sitemap.parser.streaming", true)) {
+            streamingParser =
+                    new SiteMapStreamParser(
+                            this::recentlyModified,
+                            ConfUtils.getLong(stormConf, "sitemap.max.bytes", 52428800L),
+                            ConfUtils.getInt(stormConf, "sitemap.max.entries", 50000));
+        }
+
+        shareOutlinkMetadata =
+                ConfUtils.getBoolean(stormConf, "sitemap.outlinks.share.metadata", true);
+        if (shareOutlinkMetadata && stormConf.get("metadata.transfer.class") != null) {
+            // a custom implementation may transfer metadata depending on the outlink URL
+            LOG.info("Custom metadata transfer class configured, outlink metadata not shared");
+            shareOutlinkMetadata = false;
+        }
+        if (shareOutlinkMetadata) {
+            urlFilters = URLFilters.fromConf(stormConf);
+            metadataTransfer = MetadataTransfer.getInstance(stormConf);
+        }
+
+        recentURLs = RecentURLs.get(stormConf);
+
+        if (ConfUtils.getBoolean(stormConf, "sitemap.status.batch", false)) {
+            String statusComponent =
+                    ConfUtils.getString(stormConf, "sitemap.status.batch.component", "status");
+            List<Integer> tasks = context.getComponentTasks(statusComponent);
+            if (tasks == null || tasks.isEmpty()) {
+                LOG.warn("No tasks of status component {}, batching disabled", statusComponent);
+            } else {
+                // sorted by task ID, same as the target tasks of a fields grouping
+                statusTasks = tasks;
+            }
+        }
+
+        int threads = ConfUtils.getInt(stormConf, "sitemap.parser.threads", 0);
+        if (threads > 0) {
+            int queueSize = ConfUtils.getInt(stormConf, "sitemap.parser.queue.size", 16);
+            fastLaneMaxBytes =
+                    ConfUtils.getInt(stormConf, "sitemap.parser.fastlane.bytes", fastLaneMaxBytes);
+            parserPool =
+                    new ThreadPoolExecutor(
+                            threads,
+                            threads,
+                            0L,
+                            TimeUnit.MILLISECONDS,
+                            new ArrayBlockingQueue<>(queueSize),
+                            r -> {
+                                Thread t = new Thread(r, "sitemap-parser");
+                                t.setDaemon(true);
+                                return t;
+                            });
+            context.registerMetric("news_sitemap_parse_pending", () -> pending, 10);
+            waitTimeMetrics =
+                    context.registerMetric(
+                            "news_sitemap_parse_wait_time",
+                            new ReducedMetric(new MeanReducer()),
+                            30);
+        }
+    }
+
+    @Override
+    public void declareOutputFields(OutputFieldsDeclarer declarer) {
+        super.declareOutputFields(declarer);
+        declarer.declareStream(STATUS_BATCH_STREAM, true, new Fields("urls", "metadata"));
+    }
+
+    @Override
+    public Map<String, Object> getComponentConfiguration() {
+        // tick tuples to emit sitemaps parsed asynchronously even if no new tuples arrive
+        return TupleUtils.putTickFrequencyIntoComponentConfig(super.getComponentConfiguration(), 1);
+    }
+
+    @Override
+    public void cleanup() {
+        if (parserPool != null) {
+            parserPool.shutdownNow();
+        }
+        if (urlFilters != null) {
+            urlFilters.cleanup();
+        }
+        super.cleanup();
     }
 }
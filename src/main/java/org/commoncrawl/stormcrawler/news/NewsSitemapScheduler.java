@@ -14,10 +14,17 @@
 package org.commoncrawl.stormcrawler.news;
 
 import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
 import java.util.Date;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import org.apache.storm.metric.api.MultiCountMetric;
 import org.apache.stormcrawler.Metadata;
+import org.apache.stormcrawler.bolt.FeedParserBolt;
 import org.apache.stormcrawler.bolt.SiteMapParserBolt;
 import org.apache.stormcrawler.persistence.AdaptiveScheduler;
 import org.apache.stormcrawler.persistence.Status;
@@ -43,6 +50,25 @@ import org.slf4j.LoggerFactory;
  * <p>Because a sitemap that still changes keeps its signature moving, the decision is based on
  * change, not on URL shape. Tombstoning returns {@link Optional#empty()} (no next-fetch date);
  * every other case is delegated to {@link AdaptiveScheduler}.
+ *
+ * <p>Feeds are tombstoned by an equivalent policy with its own parameters: a feed is retired if it
+ * yields no more than {@value #FEED_MAX_LINKS_PARAM} recent items ({@code numLinks}, set by {@link
+ * NewsFeedParserBolt}) and has not yielded recent items for longer than {@value
+ * #FEED_STALE_INTERVAL_PARAM} (minutes, based on {@code lastLinksDate} or, if the feed never
+ * yielded recent items, on {@code signatureChangeDate}). Because dead feeds often fail to be
+ * fetched, the policy applies also to fetch errors. Tombstoned sitemaps and feeds are counted in
+ * {@link #TOMBSTONE_METRICS}.
+ *
+ * <p>If enabled ({@value #CADENCE_PARAM}), the publication dates of the items in feeds and sitemaps
+ * are recorded per hour of the week (see {@link PublishingCadence}) by the {@link
+ * NewsFeedParserBolt} and the {@link NewsSiteMapParserBolt}. For sources without publication dates,
+ * the changes detected by {@link AdaptiveScheduler} are recorded instead. Once enough publications
+ * are recorded ({@value #CADENCE_MIN_CHANGES_PARAM}, and at least one week), the next fetch is
+ * scheduled right after the hour in which the next publication is expected, instead of the adaptive
+ * fetch interval: sources publishing on a daily or weekly pattern are not refetched in quiet hours
+ * but soon after they usually publish. The next fetch is not scheduled before the response expires
+ * (<code>Cache-Control: max-age</code> or <code>Expires</code>), unless this is later than the
+ * adaptive schedule. The adaptive fetch interval itself is kept unchanged.
  */
 public class NewsSitemapScheduler extends AdaptiveScheduler {
 
@@ -54,8 +80,47 @@ public class NewsSitemapScheduler extends AdaptiveScheduler {
     /** Default staleness interval: 180 days (in minutes). */
     private static final int DEFAULT_STALE_INTERVAL_MINUTES = 180 * 24 * 60;
 
+    /** Whether feeds and sitemaps are scheduled by their publishing cadence. */
+    public static final String CADENCE_PARAM = "scheduler.cadence.enabled";
+
+    /** Min. number of changes recorded before scheduling by the publishing cadence. */
+    public static final String CADENCE_MIN_CHANGES_PARAM = "scheduler.cadence.min.changes";
+
+    /** Histogram of the changes per hour of the week, see {@link PublishingCadence}. */
+    public static final String CADENCE_KEY = "cadence";
+
+    /** Start of the observation period of the publishing cadence (ISO-8601). */
+    public static final String CADENCE_SINCE_KEY = "cadenceSince";
+
+    /**
+     * Most recent publication date recorded in the publishing cadence (ISO-8601), only set for
+     * sources with publication dates.
+     */
+    public static final String CADENCE_PUBLISHED_KEY = "cadencePublished";
+
+    /** Minimum time (minutes) a feed must not have yielded recent items before it is tombstoned. */
+    public static final String FEED_STALE_INTERVAL_PARAM = "scheduler.feed.dead.staleInterval";
+
+    /** Max. number of recent items of a feed to be tombstoned. */
+    public static final String FEED_MAX_LINKS_PARAM = "scheduler.feed.dead.maxLinks";
+
+    /**
+     * Tombstoning decisions made in this worker, shared by all scheduler instances and exported by
+     * the {@link NewsStatusUpdaterBolt}. Access must be synchronized on the metric.
+     */
+    static final MultiCountMetric TOMBSTONE_METRICS = new MultiCountMetric();
+
     private long staleMillis;
 
+    private long feedStaleMillis;
+    private int feedMaxLinks;
+
+    private boolean cadenceEnabled;
+    private int cadenceMinChanges;
+    private int minIntervalMinutes;
+    private int maxIntervalMinutes;
+    private String protocolMDprefix;
+
     @Override
     public void init(Map<String, Object> stormConf) {
         super.init(stormConf);
@@ -65,15 +130,140 @@ public class NewsSitemapScheduler extends AdaptiveScheduler {
         LOG.info(
                 "NewsSitemapScheduler: tombstone sitemaps not modified for > {} min with numLinks=0",
                 minutes);
+        int feedMinutes =
+                ConfUtils.getInt(
+                        stormConf, FEED_STALE_INTERVAL_PARAM, DEFAULT_STALE_INTERVAL_MINUTES);
+        this.feedStaleMillis = feedMinutes * 60_000L;
+        this.feedMaxLinks = ConfUtils.getInt(stormConf, FEED_MAX_LINKS_PARAM, 0);
+        LOG.info(
+                "NewsSitemapScheduler: tombstone feeds without recent items for > {} min"
+                        + " with numLinks <= {}",
+                feedMinutes,
+                feedMaxLinks);
+        cadenceEnabled = ConfUtils.getBoolean(stormConf, CADENCE_PARAM, false);
+        cadenceMinChanges = ConfUtils.getInt(stormConf, CADENCE_MIN_CHANGES_PARAM, 10);
+        minIntervalMinutes =
+                ConfUtils.getInt(stormConf, "scheduler.adaptive.fetchInterval.min", 60);
+        maxIntervalMinutes =
+                ConfUtils.getInt(stormConf, "scheduler.adaptive.fetchInterval.max", 129600);
+        protocolMDprefix = ConfUtils.getString(stormConf, "protocol.md.prefix", "");
     }
 
     @Override
     public Optional<Date> schedule(Status status, Metadata metadata) {
         if (isDeadEphemeralSitemap(status, metadata, staleMillis)) {
             // tombstone: no next-fetch date
+            countTombstone("sitemap");
+            return Optional.empty();
+        }
+        if (isDeadFeed(status, metadata, feedStaleMillis, feedMaxLinks)) {
+            countTombstone("feed_" + status.name().toLowerCase(Locale.ROOT));
             return Optional.empty();
         }
-        return super.schedule(status, metadata);
+        String changedBefore = metadata.getFirstValue(AdaptiveScheduler.SIGNATURE_MODIFIED_KEY);
+        Optional<Date> scheduled = super.schedule(status, metadata);
+        if (!cadenceEnabled
+                || status != Status.FETCHED
+                || !scheduled.isPresent()
+                || !(isSitemap(metadata) || isFeed(metadata))) {
+            return scheduled;
+        }
+        return Optional.of(scheduleByCadence(metadata, changedBefore, scheduled.get()));
+    }
+
+    /**
+     * If the source has no publication dates, record a change detected by {@link AdaptiveScheduler}
+     * in the publishing cadence. If the cadence is reliable, schedule the next fetch after the next
+     * expected publication.
+     *
+     * @param changedBefore the <code>signatureChangeDate</code> before the adaptive scheduling
+     * @param adaptive next fetch date determined by {@link AdaptiveScheduler}
+     */
+    Date scheduleByCadence(Metadata metadata, String changedBefore, Date adaptive) {
+        Instant now = Instant.now();
+        PublishingCadence cadence =
+                new PublishingCadence(
+                        metadata.getFirstValue(CADENCE_KEY),
+                        metadata.getFirstValue(CADENCE_SINCE_KEY),
+                        now);
+        String changed = metadata.getFirstValue(AdaptiveScheduler.SIGNATURE_MODIFIED_KEY);
+        if (metadata.getFirstValue(CADENCE_PUBLISHED_KEY) == null
+                && changedBefore != null
+                && changed != null
+                && !changed.equals(changedBefore)) {
+            // no publication dates: fall back to the time the change was detected
+            try {
+                cadence.record(Instant.parse(changed), now);
+            } catch (DateTimeParseException e) {
+                // ignore
+            }
+        }
+        metadata.setValue(CADENCE_KEY, cadence.encode());
+        metadata.setValue(CADENCE_SINCE_KEY, cadence.getSince().toString());
+
+        if (!cadence.isReliable(cadenceMinChanges, now)) {
+            return adaptive;
+        }
+        Instant earliest = now.plus(minIntervalMinutes, ChronoUnit.MINUTES);
+        Instant latest = now.plus(maxIntervalMinutes, ChronoUnit.MINUTES);
+        Instant lookAhead = now.plus(PublishingCadence.BUCKETS, ChronoUnit.HOURS);
+        Instant next =
+                cadence.nextChange(earliest, lookAhead.isBefore(latest) ? lookAhead : latest, now);
+        if (next == null) {
+            // no change expected within the next week
+            return adaptive;
+        }
+        Instant expires = cacheExpiry(metadata, protocolMDprefix, now);
+        if (expires != null) {
+            // not before the response expires, but not later than the adaptive schedule
+            Instant bound = expires.isBefore(adaptive.toInstant()) ? expires : adaptive.toInstant();
+            if (bound.isAfter(next)) {
+                next = bound;
+            }
+        }
+        LOG.debug("Next change expected before {} (adaptive schedule: {})", next, adaptive);
+        return Date.from(next);
+    }
+
+    /**
+     * @return expiration time of the fetched response from the <code>Cache-Control: max-age</code>
+     *     or the <code>Expires</code> header, null if not given or not cacheable
+     */
+    static Instant cacheExpiry(Metadata metadata, String prefix, Instant now) {
+        String cacheControl = getHeader(metadata, prefix, "Cache-Control");
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim().toLowerCase(Locale.ROOT);
+                if (directive.equals("no-cache") || directive.equals("no-store")) {
+                    return null;
+                }
+                if (directive.startsWith("max-age=")) {
+                    try {
+                        return now.plusSeconds(Long.parseLong(directive.substring(8).trim()));
+                    } catch (NumberFormatException e) {
+                        return null;
+                    }
+                }
+            }
+        }
+        String expires = getHeader(metadata, prefix, "Expires");
+        if (expires != null) {
+            try {
+                return ZonedDateTime.parse(expires.trim(), DateTimeFormatter.RFC_1123_DATE_TIME)
+                        .toInstant();
+            } catch (DateTimeParseException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static String getHeader(Metadata metadata, String prefix, String name) {
+        String value = metadata.getFirstValue(prefix + name);
+        if (value == null) {
+            value = metadata.getFirstValue(prefix + name.toLowerCase(Locale.ROOT));
+        }
+        return value;
     }
 
     /** Static and package-private so the predicate can be unit-tested without the superclass. */
@@ -84,6 +274,46 @@ public class NewsSitemapScheduler extends AdaptiveScheduler {
         return notModifiedLongerThan(metadata, staleMillis) && noRecentNews(metadata);
     }
 
+    /**
+     * A feed is dead if it yields at most <code>maxLinks</code> recent items and has not yielded
+     * any recent items for longer than <code>staleMillis</code>. Applies to successful fetches and
+     * to fetch errors (the metadata is kept from the last successful fetch).
+     */
+    static boolean isDeadFeed(Status status, Metadata metadata, long staleMillis, int maxLinks) {
+        if (status != Status.FETCHED && status != Status.FETCH_ERROR && status != Status.ERROR) {
+            return false;
+        }
+        if (!isFeed(metadata)) {
+            return false;
+        }
+        String numLinks = metadata.getFirstValue(NewsSiteMapParserBolt.numLinksKey);
+        if (numLinks == null) {
+            return false; // not parsed yet -> never tombstone
+        }
+        try {
+            if (Integer.parseInt(numLinks) > maxLinks) {
+                return false;
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        String lastLinks = metadata.getFirstValue(NewsFeedParserBolt.lastLinksDateKey);
+        if (lastLinks != null) {
+            return olderThan(lastLinks, staleMillis);
+        }
+        return notModifiedLongerThan(metadata, staleMillis);
+    }
+
+    private static void countTombstone(String scope) {
+        synchronized (TOMBSTONE_METRICS) {
+            TOMBSTONE_METRICS.scope(scope).incr();
+        }
+    }
+
+    private static boolean isFeed(Metadata m) {
+        return Boolean.parseBoolean(m.getFirstValue(FeedParserBolt.isFeedKey));
+    }
+
     private static boolean isSitemap(Metadata m) {
         return Boolean.parseBoolean(m.getFirstValue(SiteMapParserBolt.isSitemapKey))
                 || Boolean.parseBoolean(m.getFirstValue(NewsSiteMapParserBolt.isSitemapNewsKey))
@@ -106,8 +336,13 @@ public class NewsSitemapScheduler extends AdaptiveScheduler {
         if (changed == null) {
             return false; // no change history yet -> never tombstone (safe default)
         }
+        return olderThan(changed, millis);
+    }
+
+    /** True when the ISO-8601 date is more than {@code millis} in the past. */
+    private static boolean olderThan(String date, long millis) {
         try {
-            long changedAt = Instant.parse(changed).toEpochMilli();
+            long changedAt = Instant.parse(date).toEpochMilli();
             return (System.currentTimeMillis() - changedAt) > millis;
         } catch (Exception e) {
             return false; // unparseable date -> treat as not stale (never tombstone)
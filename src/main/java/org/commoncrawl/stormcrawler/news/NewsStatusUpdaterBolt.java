@@ -0,0 +1,205 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commoncrawl.stormcrawler.news;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.storm.task.GeneralTopologyContext;
+import org.apache.storm.task.IOutputCollector;
+import org.apache.storm.task.OutputCollector;
+import org.apache.storm.task.TopologyContext;
+import org.apache.storm.tuple.Tuple;
+import org.apache.storm.tuple.TupleImpl;
+import org.apache.storm.tuple.Values;
+import org.apache.stormcrawler.Constants;
+import org.apache.stormcrawler.Metadata;
+import org.apache.stormcrawler.opensearch.persistence.StatusUpdaterBolt;
+import org.apache.stormcrawler.persistence.Status;
+
+/**
+ * OpenSearch status updater which additionally exports the tombstoning decisions of the {@link
+ * NewsSitemapScheduler} (metric <code>news_tombstones</code>, counts of retired sitemaps and feeds
+ * per status). The scheduler is instantiated by the status updater and has no access to the
+ * topology context, the counts are shared by all schedulers in the worker.
+ *
+ * <p>Also consumes the batches of links discovered in sitemaps (see {@link
+ * NewsSiteMapParserBolt#STATUS_BATCH_STREAM}): every link of a batch is stored as if received as
+ * single status tuple, the batch is acked once all of its links have been written, or failed if
+ * writing any of the links failed.
+ */
+@SuppressWarnings("serial")
+public class NewsStatusUpdaterBolt extends StatusUpdaterBolt {
+
+    private GeneralTopologyContext context;
+
+    private OutputCollector collector;
+
+    @Override
+    public void prepare(
+            Map<String, Object> stormConf, TopologyContext context, OutputCollector collector) {
+        this.context = context;
+        this.collector = collector;
+        // acks and fails of links unpacked from a batch are counted against the batch
+        super.prepare(stormConf, context, new OutputCollector(new BatchCollector(collector)));
+        context.registerMetric(
+                "news_tombstones",
+                () -> {
+                    synchronized (NewsSitemapScheduler.TOMBSTONE_METRICS) {
+                        return NewsSitemapScheduler.TOMBSTONE_METRICS.getValueAndReset();
+                    }
+                },
+                60);
+    }
+
+    @Override
+    public void execute(Tuple tuple) {
+        if (!NewsSiteMapParserBolt.STATUS_BATCH_STREAM.equals(tuple.getSourceStreamId())) {
+            super.execute(tuple);
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        List<String> urls = (List<String>) tuple.getValueByField("urls");
+        @SuppressWarnings("unchecked")
+        List<Metadata> metadata = (List<Metadata>) tuple.getValueByField("metadata");
+        if (urls.isEmpty()) {
+            collector.ack(tuple);
+            return;
+        }
+        Batch batch = new Batch(tuple, urls.size());
+        for (int i = 0; i < urls.size(); i++) {
+            super.execute(new BatchedTuple(context, batch, urls.get(i), metadata.get(i)));
+        }
+    }
+
+    /** A batch of links, acked or failed once all links are processed */
+    static class Batch {
+        final Tuple tuple;
+        final AtomicInteger remaining;
+        volatile boolean failed = false;
+
+        Batch(Tuple tuple, int size) {
+            this.tuple = tuple;
+            this.remaining = new AtomicInteger(size);
+        }
+
+        /** called for every link, may be called from the threads handling the bulk responses */
+        void done(boolean success, IOutputCollector collector) {
+            if (!success) {
+                failed = true;
+            }
+            if (remaining.decrementAndGet() == 0) {
+                if (failed) {
+                    collector.fail(tuple);
+                } else {
+                    collector.ack(tuple);
+                }
+            }
+        }
+    }
+
+    /**
+     * A link unpacked from a batch, looks like a tuple on the status stream of the component which
+     * emitted the batch
+     */
+    static class BatchedTuple extends TupleImpl {
+        final Batch batch;
+
+        BatchedTuple(GeneralTopologyContext context, Batch batch, String url, Metadata metadata) {
+            super(
+                    context,
+                    new Values(url, metadata, Status.DISCOVERED),
+                    batch.tuple.getSourceComponent(),
+                    batch.tuple.getSourceTask(),
+                    Constants.StatusStreamName,
+                    batch.tuple.getMessageId());
+            this.batch = batch;
+        }
+    }
+
+    /** Passes acks and fails of batched links to their batch */
+    static class BatchCollector implements IOutputCollector {
+
+        private final IOutputCollector delegate;
+
+        BatchCollector(IOutputCollector delegate) {
+            this.delegate = delegate;
+        }
+
+        private static Collection<Tuple> anchors(Collection<Tuple> anchors) {
+            if (anchors == null) {
+                return null;
+            }
+            List<Tuple> result = new ArrayList<>(anchors.size());
+            for (Tuple anchor : anchors) {
+                if (anchor instanceof BatchedTuple) {
+                    result.add(((BatchedTuple) anchor).batch.tuple);
+                } else {
+                    result.add(anchor);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public List<Integer> emit(String streamId, Collection<Tuple> anchors, List<Object> tuple) {
+            return delegate.emit(streamId, anchors(anchors), tuple);
+        }
+
+        @Override
+        public void emitDirect(
+                int taskId, String streamId, Collection<Tuple> anchors, List<Object> tuple) {
+            delegate.emitDirect(taskId, streamId, anchors(anchors), tuple);
+        }
+
+        @Override
+        public void ack(Tuple input) {
+            if (input instanceof BatchedTuple) {
+                ((BatchedTuple) input).batch.done(true, delegate);
+            } else {
+                delegate.ack(input);
+            }
+        }
+
+        @Override
+        public void fail(Tuple input) {
+            if (input instanceof BatchedTuple) {
+                ((BatchedTuple) input).batch.done(false, delegate);
+            } else {
+                delegate.fail(input);
+            }
+        }
+
+        @Override
+        public void resetTimeout(Tuple input) {
+            if (input instanceof BatchedTuple) {
+                delegate.resetTimeout(((BatchedTuple) input).batch.tuple);
+            } else {
+                delegate.resetTimeout(input);
+            }
+        }
+
+        @Override
+        public void flush() {
+            delegate.flush();
+        }
+
+        @Override
+        public void reportError(Throwable error) {
+            delegate.reportError(error);
+        }
+    }
+}
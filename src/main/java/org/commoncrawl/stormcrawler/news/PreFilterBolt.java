@@ -16,8 +16,10 @@ package org.commoncrawl.stormcrawler.news;
 
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
+import java.util.HashMap;
 import java.util.Map;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.storm.metric.api.MultiCountMetric;
 import org.apache.storm.task.OutputCollector;
 import org.apache.storm.task.TopologyContext;
 import org.apache.storm.topology.OutputFieldsDeclarer;
@@ -28,12 +30,25 @@ import org.apache.storm.tuple.Values;
 import org.apache.stormcrawler.Metadata;
 import org.apache.stormcrawler.filtering.URLFilters;
 import org.apache.stormcrawler.persistence.Status;
+import org.apache.stormcrawler.util.ConfUtils;
+import org.commoncrawl.stormcrawler.filter.FastURLFilter;
+import org.commoncrawl.stormcrawler.filter.FastURLFilterMetric;
+import org.commoncrawl.stormcrawler.filter.HostShards;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Variant of the URLFilterBolt to go upstream of the fetching to catch anything before it goes
  * further into the topology. If filtered, a URL gets an ERROR status.
+ *
+ * <p>If <code>fast.urlfilter.sharded</code> is true, each task loads only its shard of the rules of
+ * the {@link FastURLFilter} and the URLs must be routed to the tasks by the {@link
+ * HostShardGrouping}.
+ *
+ * <p>Sitemaps and feeds list the same URLs on every fetch. If <code>prefilter.cache.size</code> is
+ * set, the verdicts of the filters are cached for <code>prefilter.cache.ttl.secs</code> (default: 6
+ * hours). The cache is cleared whenever the rules of the FastURLFilter are reloaded. Hits and
+ * misses are reported as metric <code>prefilter_cache</code>.
  */
 public class PreFilterBolt extends BaseRichBolt {
 
@@ -48,6 +63,19 @@ public class PreFilterBolt extends BaseRichBolt {
 
     private static final String _s = org.apache.stormcrawler.Constants.StatusStreamName;
 
+    /** Max. number of cached filter verdicts, 0 (default) disables the cache */
+    public static final String CACHE_SIZE_PARAM = "prefilter.cache.size";
+
+    /** Time-to-live of cached filter verdicts in seconds */
+    public static final String CACHE_TTL_PARAM = "prefilter.cache.ttl.secs";
+
+    private URLVerdictCache cache;
+
+    /** version of the FastURLFilter rules the cached verdicts are based on */
+    private long cachedRulesVersion;
+
+    private MultiCountMetric cacheMetrics;
+
     public PreFilterBolt(String filterConfigFile) {
         this.filterConfigFile = filterConfigFile;
     }
@@ -59,8 +87,7 @@ public class PreFilterBolt extends BaseRichBolt {
         String urlString = input.getStringByField("url");
         Metadata metadata = (Metadata) input.getValueByField("metadata");
 
-        String filtered = urlFilters.filter(null, null, urlString);
-        if (StringUtils.isBlank(filtered)) {
+        if (!isAccepted(urlString)) {
             LOG.debug("URL rejected: {}", urlString);
             // emit with an error to the status stream
             metadata.addValue("error.cause", "Filtered");
@@ -76,6 +103,35 @@ public class PreFilterBolt extends BaseRichBolt {
         collector.ack(input);
     }
 
+    /**
+     * Run the URL filters or look up the verdict in the cache. The filters are called without
+     * source URL and metadata, so the verdict depends only on the URL and the filter rules.
+     */
+    private boolean isAccepted(String urlString) {
+        if (cache == null) {
+            return StringUtils.isNotBlank(urlFilters.filter(null, null, urlString));
+        }
+
+        long rulesVersion = FastURLFilter.getRulesVersion();
+        if (rulesVersion != cachedRulesVersion) {
+            // rules have been reloaded
+            cache.clear();
+            cachedRulesVersion = rulesVersion;
+            cacheMetrics.scope("cleared").incr();
+        }
+
+        long now = System.currentTimeMillis();
+        Boolean accepted = cache.get(urlString, now);
+        if (accepted != null) {
+            cacheMetrics.scope("hit").incr();
+            return accepted;
+        }
+        cacheMetrics.scope("miss").incr();
+        accepted = StringUtils.isNotBlank(urlFilters.filter(null, null, urlString));
+        cache.put(urlString, accepted, now);
+        return accepted;
+    }
+
     @Override
     public void declareOutputFields(OutputFieldsDeclarer declarer) {
         declarer.declareStream(_s, new Fields("url", "metadata", "status"));
@@ -85,6 +141,14 @@ public class PreFilterBolt extends BaseRichBolt {
     @Override
     public void prepare(Map stormConf, TopologyContext context, OutputCollector collector) {
         this.collector = collector;
+        if (ConfUtils.getBoolean(stormConf, HostShards.SHARDED_PARAM, false)) {
+            // load only the rules of the URLs routed to this task by the HostShardGrouping
+            stormConf = new HashMap<>(stormConf);
+            stormConf.put(HostShards.SHARD_INDEX_PARAM, context.getThisTaskIndex());
+            stormConf.put(
+                    HostShards.SHARD_COUNT_PARAM,
+                    context.getComponentTasks(context.getThisComponentId()).size());
+        }
         if (filterConfigFile != null) {
             try {
                 urlFilters = new URLFilters(stormConf, filterConfigFile);
@@ -94,5 +158,18 @@ public class PreFilterBolt extends BaseRichBolt {
         } else {
             urlFilters = URLFilters.fromConf(stormConf);
         }
+        if (ConfUtils.getBoolean(stormConf, FastURLFilter.METRICS_PARAM, false)) {
+            context.registerMetric(
+                    "fast_urlfilter",
+                    new FastURLFilterMetric(),
+                    ConfUtils.getInt(stormConf, FastURLFilter.METRICS_TIME_BUCKET_PARAM, 60));
+        }
+        int cacheSize = ConfUtils.getInt(stormConf, CACHE_SIZE_PARAM, 0);
+        if (cacheSize > 0) {
+            long ttl = ConfUtils.getLong(stormConf, CACHE_TTL_PARAM, 21600) * 1000;
+            cache = new URLVerdictCache(cacheSize, ttl);
+            cachedRulesVersion = FastURLFilter.getRulesVersion();
+            cacheMetrics = context.registerMetric("prefilter_cache", new MultiCountMetric(), 60);
+        }
     }
 }
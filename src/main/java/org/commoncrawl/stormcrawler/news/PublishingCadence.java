@@ -0,0 +1,216 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commoncrawl.stormcrawler.news;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.Base64;
+import java.util.Date;
+import org.apache.stormcrawler.Metadata;
+
+/**
+ * Publishing cadence of a feed or sitemap: a histogram of the publications per hour of the week
+ * (168 buckets, UTC), kept in the metadata of the feed or sitemap. The publication dates of the
+ * items are recorded while the feed or sitemap is parsed (see {@link PublicationDates}). For
+ * sources without publication dates, the content changes detected when fetching are recorded
+ * instead. The counts are stored as bytes, encoded as Base64 string (224 characters). Once a bucket
+ * is full all counts are halved and the start of the observation period is moved forward by half,
+ * so that older observations fade out.
+ *
+ * <p>The counts divided by the number of weeks observed give the expected number of changes per
+ * hour of the week. The next change is expected in the hour when the sum of the expected changes,
+ * counted from the last fetch, exceeds ln(2), that is when the probability of at least one change
+ * (Poisson) exceeds 50%.
+ */
+class PublishingCadence {
+
+    static final int BUCKETS = 7 * 24;
+
+    private static final long WEEK_SECONDS = BUCKETS * 3600L;
+
+    /** expected number of changes for a change probability of 50% */
+    private static final double LN2 = Math.log(2);
+
+    private final int[] counts = new int[BUCKETS];
+
+    private int total = 0;
+
+    /** start of the observation period */
+    private Instant since;
+
+    /**
+     * @param encoded the histogram stored in the metadata, may be null
+     * @param since start of the observation period stored in the metadata, null or unparseable if
+     *     observation starts now
+     */
+    PublishingCadence(String encoded, String since, Instant now) {
+        this.since = now;
+        if (encoded == null || since == null) {
+            return;
+        }
+        byte[] bytes;
+        try {
+            bytes = Base64.getDecoder().decode(encoded);
+            this.since = Instant.parse(since);
+        } catch (RuntimeException e) {
+            // invalid, start again
+            this.since = now;
+            return;
+        }
+        if (bytes.length != BUCKETS) {
+            this.since = now;
+            return;
+        }
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = bytes[i] & 0xff;
+            total += counts[i];
+        }
+    }
+
+    /**
+     * Record a publication or a change of the content at the given time. A publication before the
+     * start of the observation period moves the start back.
+     */
+    void record(Instant changed, Instant now) {
+        if (changed.isBefore(since)) {
+            since = changed;
+        }
+        int bucket = bucket(changed);
+        if (counts[bucket] == 255) {
+            total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] >>= 1;
+                total += counts[i];
+            }
+            since = since.plus(Duration.between(since, now).dividedBy(2));
+        }
+        counts[bucket]++;
+        total++;
+    }
+
+    /**
+     * @return whether there are enough observations to predict changes: at least one week and the
+     *     given number of changes
+     */
+    boolean isReliable(int minChanges, Instant now) {
+        return total >= minChanges && weeks(now) >= 1.0;
+    }
+
+    /**
+     * @param from time of the last fetch, changes after this time are expected
+     * @param until look ahead up to this time
+     * @return the end of the hour in which the next change is expected, null if no change is
+     *     expected before <code>until</code>
+     */
+    Instant nextChange(Instant from, Instant until, Instant now) {
+        double weeks = Math.max(1.0, weeks(now));
+        double expected = 0.0;
+        Instant start = from;
+        while (start.isBefore(until)) {
+            Instant end = start.truncatedTo(ChronoUnit.HOURS).plus(1, ChronoUnit.HOURS);
+            double fraction = Duration.between(start, end).getSeconds() / 3600.0;
+            expected += fraction * counts[bucket(start)] / weeks;
+            if (expected >= LN2) {
+                return end;
+            }
+            start = end;
+        }
+        return null;
+    }
+
+    String encode() {
+        byte[] bytes = new byte[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            bytes[i] = (byte) counts[i];
+        }
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+
+    Instant getSince() {
+        return since;
+    }
+
+    private double weeks(Instant now) {
+        return Duration.between(since, now).getSeconds() / (double) WEEK_SECONDS;
+    }
+
+    /** @return hour of the week, 0 is Monday 0:00 - 1:00 UTC */
+    static int bucket(Instant time) {
+        // 1970-01-01 was a Thursday
+        long hours = Math.floorDiv(time.getEpochSecond(), 3600L) + 3 * 24;
+        return (int) Math.floorMod(hours, (long) BUCKETS);
+    }
+
+    /**
+     * Publication dates of the items of a feed or sitemap, recorded in the publishing cadence while
+     * the feed or sitemap is parsed. Only items published after the most recent publication date
+     * recorded before are counted or, if nothing was recorded yet, items published within the last
+     * week. Dates in the future are ignored.
+     */
+    static class PublicationDates {
+
+        private final Metadata metadata;
+        private final Instant now;
+        private final Instant after;
+
+        private PublishingCadence cadence;
+        private Instant newest;
+
+        PublicationDates(Metadata metadata, Instant now) {
+            this.metadata = metadata;
+            this.now = now;
+            Instant recorded = null;
+            String value = metadata.getFirstValue(NewsSitemapScheduler.CADENCE_PUBLISHED_KEY);
+            if (value != null) {
+                try {
+                    recorded = Instant.parse(value);
+                } catch (DateTimeParseException e) {
+                    // start again
+                }
+            }
+            after = recorded != null ? recorded : now.minus(BUCKETS, ChronoUnit.HOURS);
+        }
+
+        void add(Date published) {
+            Instant time = published.toInstant();
+            if (!time.isAfter(after) || time.isAfter(now)) {
+                return;
+            }
+            if (cadence == null) {
+                cadence =
+                        new PublishingCadence(
+                                metadata.getFirstValue(NewsSitemapScheduler.CADENCE_KEY),
+                                metadata.getFirstValue(NewsSitemapScheduler.CADENCE_SINCE_KEY),
+                                now);
+            }
+            cadence.record(time, now);
+            if (newest == null || time.isAfter(newest)) {
+                newest = time;
+            }
+        }
+
+        /** Store the cadence and the most recent publication date recorded in the metadata */
+        void finish() {
+            if (cadence == null) {
+                return;
+            }
+            metadata.setValue(NewsSitemapScheduler.CADENCE_KEY, cadence.encode());
+            metadata.setValue(
+                    NewsSitemapScheduler.CADENCE_SINCE_KEY, cadence.getSince().toString());
+            metadata.setValue(NewsSitemapScheduler.CADENCE_PUBLISHED_KEY, newest.toString());
+        }
+    }
+}
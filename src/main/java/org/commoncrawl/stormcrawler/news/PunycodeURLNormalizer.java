@@ -20,8 +20,10 @@ import java.net.URL;
 import java.util.Map;
 import org.apache.stormcrawler.Metadata;
 import org.apache.stormcrawler.filtering.URLFilter;
+import org.commoncrawl.stormcrawler.filter.ParsedURL;
+import org.commoncrawl.stormcrawler.filter.ParsedURLFilter;
 
-public class PunycodeURLNormalizer extends URLFilter {
+public class PunycodeURLNormalizer extends URLFilter implements ParsedURLFilter {
 
     @Override
     public void configure(Map stormConf, JsonNode filterParams) {}
@@ -55,4 +57,13 @@ public class PunycodeURLNormalizer extends URLFilter {
         }
         return urlToFilter;
     }
+
+    @Override
+    public String filter(URL sourceUrl, Metadata sourceMetadata, ParsedURL url) {
+        if (isAscii(url.getHost())) {
+            return url.toString();
+        }
+        // rarely needed, create a URL and normalize it as above
+        return filter(sourceUrl, sourceMetadata, url.toString());
+    }
 }
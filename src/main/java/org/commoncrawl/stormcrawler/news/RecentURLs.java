@@ -0,0 +1,184 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commoncrawl.stormcrawler.news;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.apache.stormcrawler.util.ConfUtils;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Approximate set of the URLs discovered recently in this worker, shared by all parser tasks
+ * (sitemaps, feeds) running in the worker, to avoid that the same URL is emitted as DISCOVERED
+ * multiple times when found in several sources (news sitemap, alternate language links, RSS and
+ * Atom feeds) within a short time.
+ *
+ * <p>Implemented as rotating Bloom filter of two generations: URLs are added to the current
+ * generation and looked up in both generations. Every window the previous generation is dropped and
+ * the current generation becomes the previous one, so that a URL is remembered for at least one and
+ * at most two windows. Each generation is sized for the expected number of URLs per window and the
+ * false positive rate (a new URL considered as duplicate).
+ *
+ * <p>Configuration:
+ *
+ * <ul>
+ *   <li>{@value #WINDOW_PARAM}: window in seconds, 0 (default) disables deduplication
+ *   <li>{@value #EXPECTED_PARAM}: expected number of URLs per window (default: 1 million)
+ *   <li>{@value #FPP_PARAM}: false positive rate (default: 0.001)
+ * </ul>
+ *
+ * With the default settings, the filter takes 3.6 MB of heap.
+ */
+class RecentURLs {
+
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(RecentURLs.class);
+
+    public static final String WINDOW_PARAM = "discovered.dedup.window.secs";
+
+    public static final String EXPECTED_PARAM = "discovered.dedup.expected.urls";
+
+    public static final String FPP_PARAM = "discovered.dedup.fpp";
+
+    /** instance shared by all tasks in the worker */
+    private static RecentURLs instance;
+
+    private final long window;
+    private final int numBits;
+    private final int numHashes;
+
+    private volatile AtomicLongArray current;
+    private volatile AtomicLongArray previous;
+    private volatile long nextRotation;
+
+    /**
+     * @param window in milliseconds
+     * @param expected number of URLs added per window
+     * @param fpp false positive rate
+     * @param now current time in milliseconds
+     */
+    RecentURLs(long window, int expected, double fpp, long now) {
+        this.window = window;
+        long bits = (long) Math.ceil(-expected * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        // round up to full longs
+        numBits = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, bits + 63) & ~63L);
+        numHashes = Math.max(1, (int) Math.round((double) numBits / expected * Math.log(2)));
+        current = new AtomicLongArray(numBits / 64);
+        previous = new AtomicLongArray(numBits / 64);
+        nextRotation = now + window;
+    }
+
+    /** @return the instance shared in the worker, null if deduplication is disabled */
+    static synchronized RecentURLs get(Map<String, Object> conf) {
+        int window = ConfUtils.getInt(conf, WINDOW_PARAM, 0);
+        if (window <= 0) {
+            return null;
+        }
+        if (instance == null) {
+            int expected = ConfUtils.getInt(conf, EXPECTED_PARAM, 1000000);
+            double fpp = ConfUtils.getFloat(conf, FPP_PARAM, 0.001f);
+            instance = new RecentURLs(window * 1000L, expected, fpp, System.currentTimeMillis());
+            LOG.info(
+                    "Deduplication of discovered URLs: window {} sec., {} bits, {} hash functions",
+                    window,
+                    instance.numBits,
+                    instance.numHashes);
+        }
+        return instance;
+    }
+
+    /**
+     * Add the URL to the set.
+     *
+     * @param now current time in milliseconds
+     * @return true if the URL has been (probably) added before within the last one or two windows
+     */
+    boolean add(String url, long now) {
+        if (now >= nextRotation) {
+            rotate(now);
+        }
+        AtomicLongArray cur = current;
+        AtomicLongArray prev = previous;
+        long hash = hash(url);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        boolean inCurrent = true;
+        boolean inPrevious = true;
+        for (int i = 0; i < numHashes; i++) {
+            int bit = Math.floorMod(h1 + i * h2, numBits);
+            int word = bit >>> 6;
+            long mask = 1L << bit;
+            if (inPrevious && (prev.get(word) & mask) == 0) {
+                inPrevious = false;
+            }
+            long old = cur.getAndAccumulate(word, mask, (a, b) -> a | b);
+            if ((old & mask) == 0) {
+                inCurrent = false;
+            }
+        }
+        return inCurrent || inPrevious;
+    }
+
+    /** @return true if the URL has been (probably) added within the last one or two windows */
+    boolean contains(String url) {
+        AtomicLongArray cur = current;
+        AtomicLongArray prev = previous;
+        long hash = hash(url);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        boolean inCurrent = true;
+        boolean inPrevious = true;
+        for (int i = 0; i < numHashes && (inCurrent || inPrevious); i++) {
+            int bit = Math.floorMod(h1 + i * h2, numBits);
+            long mask = 1L << bit;
+            inCurrent &= (cur.get(bit >>> 6) & mask) != 0;
+            inPrevious &= (prev.get(bit >>> 6) & mask) != 0;
+        }
+        return inCurrent || inPrevious;
+    }
+
+    /** 64-bit FNV-1a hash with the bits mixed (MurmurHash3 finalizer) */
+    private static long hash(String url) {
+        long h = URLVerdictCache.fingerprint(url);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private synchronized void rotate(long now) {
+        if (now < nextRotation) {
+            // rotated by another thread
+            return;
+        }
+        if (now - nextRotation >= window) {
+            // no URLs added for more than a window, all are expired
+            previous = new AtomicLongArray(numBits / 64);
+            nextRotation = now + window;
+        } else {
+            previous = current;
+            nextRotation += window;
+        }
+        current = new AtomicLongArray(numBits / 64);
+    }
+
+    int getNumBits() {
+        return numBits;
+    }
+
+    int getNumHashes() {
+        return numHashes;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commoncrawl.stormcrawler.news;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Compact record of the links emitted from a sitemap, kept in the sitemap's metadata to emit only
+ * the links added since the previous parse. Links are stored as sorted 32-bit fingerprints, encoded
+ * as Base64 string: 1000 links take less than 5.5 kB. A false positive (a new link considered as
+ * seen) is unlikely even for large sitemaps (about 1 in 4 million for a sitemap with 1000 links).
+ *
+ * <p>The record holds only the links found on the last parse, links removed from the sitemap are
+ * dropped from the record.
+ */
+class SeenURLs {
+
+    private static final int[] EMPTY = new int[0];
+
+    /** fingerprints of the previous parse, sorted */
+    private final int[] previous;
+
+    /** fingerprints of the current parse */
+    private int[] current = new int[64];
+
+    private int size = 0;
+
+    /** @param encoded the record stored on the previous parse, may be null */
+    SeenURLs(String encoded) {
+        previous = decode(encoded);
+    }
+
+    /** @return true if the link was seen on the previous parse */
+    boolean contains(String url) {
+        return Arrays.binarySearch(previous, fingerprint(url)) >= 0;
+    }
+
+    /**
+     * Record a link for the next parse. Only links which have been emitted (now or before) should
+     * be recorded, links not recorded are checked again on the next parse.
+     */
+    void add(String url) {
+        if (size == current.length) {
+            current = Arrays.copyOf(current, size * 2);
+        }
+        current[size++] = fingerprint(url);
+    }
+
+    /**
+     * @param maxSize max. number of links recorded, links exceeding the max. are emitted on every
+     *     parse
+     * @return the record of the links seen on the current parse
+     */
+    String encode(int maxSize) {
+        int[] fps = Arrays.copyOf(current, Math.min(size, maxSize));
+        Arrays.sort(fps);
+        ByteBuffer buf = ByteBuffer.allocate(fps.length * Integer.BYTES);
+        buf.asIntBuffer().put(fps);
+        return Base64.getEncoder().withoutPadding().encodeToString(buf.array());
+    }
+
+    private static int[] decode(String encoded) {
+        if (encoded == null || encoded.isEmpty()) {
+            return EMPTY;
+        }
+        byte[] bytes;
+        try {
+            bytes = Base64.getDecoder().decode(encoded);
+        } catch (IllegalArgumentException e) {
+            return EMPTY;
+        }
+        int[] fps = new int[bytes.length / Integer.BYTES];
+        ByteBuffer.wrap(bytes).asIntBuffer().get(fps);
+        // sorted on encoding, but do not rely on it
+        Arrays.sort(fps);
+        return fps;
+    }
+
+    static int fingerprint(String url) {
+        long hash = URLVerdictCache.fingerprint(url);
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
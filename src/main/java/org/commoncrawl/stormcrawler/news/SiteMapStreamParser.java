@@ -0,0 +1,349 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commoncrawl.stormcrawler.news;
+
+import crawlercommons.sitemaps.AbstractSiteMap;
+import crawlercommons.sitemaps.Namespace;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Streaming (StAX) parser for XML sitemaps and sitemap indexes. In contrast to the crawler-commons
+ * {@link crawlercommons.sitemaps.SiteMapParser}, no object graph of the sitemap is built: entries
+ * are filtered by their modification (<code>lastmod</code>) or news publication date while they are
+ * read and only the entries passing the filter are handed over to a {@link Handler}. The number of
+ * entries and the number of (uncompressed) bytes read are capped, compressed sitemaps are inflated
+ * as a stream. The heap required to parse a sitemap does not depend on its size.
+ *
+ * <p>News sitemaps are mostly ordered by publication date, newest first. If a watermark is passed
+ * to {@link #parse(byte[], Handler, Date)}, parsing stops after {@value #STOP_AFTER} consecutive
+ * entries published before the watermark, so that only the head of a sitemap parsed before is read.
+ *
+ * <p>Only sitemaps with a <code>urlset</code> or <code>sitemapindex</code> root element in one of
+ * the sitemap namespaces are parsed, for any other format {@link #parse(byte[], Handler)} returns
+ * null, so that the caller can fall back to the crawler-commons parser.
+ */
+class SiteMapStreamParser {
+
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(SiteMapStreamParser.class);
+
+    private static final Set<String> SITEMAP_NAMESPACES = new HashSet<>();
+    private static final Set<String> NEWS_NAMESPACES = new HashSet<>(Arrays.asList(Namespace.NEWS));
+    private static final Set<String> LINKS_NAMESPACES =
+            new HashSet<>(Arrays.asList(Namespace.LINKS));
+
+    static {
+        SITEMAP_NAMESPACES.add(Namespace.SITEMAP);
+        SITEMAP_NAMESPACES.addAll(Arrays.asList(Namespace.SITEMAP_LEGACY));
+        SITEMAP_NAMESPACES.add(Namespace.EMPTY);
+    }
+
+    private static final XMLInputFactory FACTORY = XMLInputFactory.newFactory();
+
+    static {
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        FACTORY.setProperty(XMLInputFactory.IS_COALESCING, true);
+    }
+
+    /** Receives the entries of a sitemap which pass the date filter */
+    interface Handler {
+
+        /** Sub-sitemap of a sitemap index */
+        void sitemap(String target, Date lastModified);
+
+        /**
+         * URL of a sitemap
+         *
+         * @param alternates targets of alternate links (<code>xhtml:link</code>)
+         */
+        void url(String target, Date lastModified, List<String> alternates);
+
+        /**
+         * Publication date (or, if not given, modification date) of an entry, called for all
+         * entries including those skipped because they are outdated
+         */
+        default void published(Date published) {}
+    }
+
+    /**
+     * Number of consecutive entries published before the watermark after which parsing is stopped,
+     * tolerates a few entries out of order
+     */
+    static final int STOP_AFTER = 5;
+
+    /** Statistics of a parsed sitemap */
+    static class Result {
+        boolean isIndex;
+        int found;
+        int skipped;
+        /** whether parsing stopped early, because of a cap or an error */
+        boolean truncated;
+        /** whether parsing stopped at the watermark */
+        boolean stopped;
+        /** most recent news publication date, null if no entry has one */
+        Date newest;
+    }
+
+    private final Predicate<Date> recent;
+    private final long maxBytes;
+    private final int maxEntries;
+
+    /**
+     * @param recent filter for the modification and publication dates
+     * @param maxBytes max. number of (uncompressed) bytes read
+     * @param maxEntries max. number of entries read
+     */
+    SiteMapStreamParser(Predicate<Date> recent, long maxBytes, int maxEntries) {
+        this.recent = recent;
+        this.maxBytes = maxBytes;
+        this.maxEntries = maxEntries;
+    }
+
+    /** Input stream which signals the end of the stream once the max. number of bytes is read */
+    private static class CappedInputStream extends FilterInputStream {
+        private long remaining;
+        boolean capped = false;
+
+        CappedInputStream(InputStream in, long max) {
+            super(in);
+            remaining = max;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                capped = true;
+                return -1;
+            }
+            int b = super.read();
+            if (b != -1) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                capped = true;
+                return -1;
+            }
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+    }
+
+    /** @return the result or null if the content is not an XML sitemap or sitemap index */
+    Result parse(byte[] content, Handler handler) throws IOException {
+        return parse(content, handler, null);
+    }
+
+    /**
+     * @param watermark stop parsing after a series of entries published before this date, null to
+     *     parse the entire sitemap
+     * @return the result or null if the content is not an XML sitemap or sitemap index
+     */
+    Result parse(byte[] content, Handler handler, Date watermark) throws IOException {
+        InputStream in = new ByteArrayInputStream(content);
+        if (ContentDetector.isGzipped(content)) {
+            in = new GZIPInputStream(in);
+        }
+        CappedInputStream capped = new CappedInputStream(in, maxBytes);
+        XMLStreamReader reader = null;
+        try {
+            reader = FACTORY.createXMLStreamReader(capped);
+            return parse(reader, handler, watermark, capped);
+        } catch (XMLStreamException e) {
+            // not well-formed XML before the root element is read
+            LOG.debug("Failed to parse as XML: {}", e.getMessage());
+            return null;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // ignore
+                }
+            }
+            capped.close();
+        }
+    }
+
+    private Result parse(
+            XMLStreamReader reader, Handler handler, Date watermark, CappedInputStream capped)
+            throws XMLStreamException {
+        while (reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT) {
+            // skip prolog
+        }
+        if (!reader.isStartElement() || !isSitemapElement(reader)) {
+            return null;
+        }
+        Result result = new Result();
+        String root = reader.getLocalName();
+        if ("sitemapindex".equals(root)) {
+            result.isIndex = true;
+        } else if (!"urlset".equals(root)) {
+            return null;
+        }
+        String entryName = result.isIndex ? "sitemap" : "url";
+
+        boolean inEntry = false;
+        String loc = null;
+        Date lastModified = null;
+        Date published = null;
+        boolean outdated = false;
+        List<String> alternates = new ArrayList<>();
+        // consecutive entries published before the watermark
+        int beforeWatermark = 0;
+
+        try {
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if (!inEntry) {
+                        if (entryName.equals(name) && isSitemapElement(reader)) {
+                            if (result.found >= maxEntries) {
+                                LOG.info("Max. number of entries ({}) reached", maxEntries);
+                                result.truncated = true;
+                                break;
+                            }
+                            if (beforeWatermark >= STOP_AFTER) {
+                                LOG.debug("Stopped at entries published before {}", watermark);
+                                result.stopped = true;
+                                break;
+                            }
+                            inEntry = true;
+                            loc = null;
+                            lastModified = null;
+                            published = null;
+                            outdated = false;
+                            alternates.clear();
+                        }
+                    } else if (isSitemapElement(reader)) {
+                        if ("loc".equals(name)) {
+                            loc = reader.getElementText().trim();
+                        } else if ("lastmod".equals(name)) {
+                            lastModified = AbstractSiteMap.convertToDate(reader.getElementText());
+                            if (lastModified != null && !recent.test(lastModified)) {
+                                outdated = true;
+                            }
+                        }
+                    } else if ("publication_date".equals(name)
+                            && NEWS_NAMESPACES.contains(reader.getNamespaceURI())) {
+                        published = AbstractSiteMap.convertToDate(reader.getElementText());
+                        if (published != null && !recent.test(published)) {
+                            outdated = true;
+                        }
+                    } else if ("link".equals(name)
+                            && LINKS_NAMESPACES.contains(reader.getNamespaceURI())) {
+                        String href = reader.getAttributeValue(null, "href");
+                        if (href != null) {
+                            alternates.add(href.trim());
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT
+                        && inEntry
+                        && entryName.equals(reader.getLocalName())
+                        && isSitemapElement(reader)) {
+                    inEntry = false;
+                    result.found++;
+                    if (published != null) {
+                        if (result.newest == null || published.after(result.newest)) {
+                            result.newest = published;
+                        }
+                        if (watermark != null && published.before(watermark)) {
+                            beforeWatermark++;
+                        } else {
+                            beforeWatermark = 0;
+                        }
+                    }
+                    if (published != null) {
+                        handler.published(published);
+                    } else if (lastModified != null) {
+                        handler.published(lastModified);
+                    }
+                    if (outdated) {
+                        result.skipped++;
+                        LOG.debug("{} is older than the configured max. age", loc);
+                        continue;
+                    }
+                    String target = toURL(loc);
+                    if (target == null) {
+                        continue;
+                    }
+                    if (result.isIndex) {
+                        handler.sitemap(target, lastModified);
+                    } else {
+                        List<String> targets = new ArrayList<>(alternates.size());
+                        for (String alternate : alternates) {
+                            String t = toURL(alternate);
+                            if (t != null) {
+                                targets.add(t);
+                            }
+                        }
+                        handler.url(target, lastModified, targets);
+                    }
+                }
+            }
+        } catch (XMLStreamException e) {
+            // keep the entries read so far (partial sitemap)
+            if (capped.capped) {
+                LOG.info("Max. number of bytes ({}) reached", maxBytes);
+            } else {
+                LOG.info("Failed to parse sitemap completely: {}", e.getMessage());
+            }
+            result.truncated = true;
+        }
+        return result;
+    }
+
+    private static boolean isSitemapElement(XMLStreamReader reader) {
+        String ns = reader.getNamespaceURI();
+        return SITEMAP_NAMESPACES.contains(ns == null ? Namespace.EMPTY : ns);
+    }
+
+    private static String toURL(String loc) {
+        if (loc == null || loc.isEmpty()) {
+            return null;
+        }
+        try {
+            return new URL(loc).toExternalForm();
+        } catch (MalformedURLException e) {
+            LOG.debug("Bad URL in sitemap: {}", loc);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.commoncrawl.stormcrawler.news;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of URL filter verdicts (accepted or rejected), keyed by a 64-bit fingerprint of the
+ * URL. Entries expire after a fixed time-to-live, if the cache is full the least recently used
+ * entry is evicted. Not thread-safe, meant to be used by a single bolt task.
+ */
+class URLVerdictCache {
+
+    private static final class Verdict {
+        final boolean accepted;
+        final long expires;
+
+        Verdict(boolean accepted, long expires) {
+            this.accepted = accepted;
+            this.expires = expires;
+        }
+    }
+
+    private final long ttl;
+
+    private final LinkedHashMap<Long, Verdict> verdicts;
+
+    /**
+     * @param maxSize max. number of cached verdicts
+     * @param ttl time-to-live of a verdict in milliseconds
+     */
+    URLVerdictCache(final int maxSize, long ttl) {
+        this.ttl = ttl;
+        verdicts =
+                new LinkedHashMap<>(16, 0.75f, true) {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<Long, Verdict> eldest) {
+                        return size() > maxSize;
+                    }
+                };
+    }
+
+    /**
+     * @param now current time in milliseconds
+     * @return the cached verdict, null if the URL is not cached or the verdict has expired
+     */
+    Boolean get(String url, long now) {
+        Long key = fingerprint(url);
+        Verdict verdict = verdicts.get(key);
+        if (verdict == null) {
+            return null;
+        }
+        if (verdict.expires <= now) {
+            verdicts.remove(key);
+            return null;
+        }
+        return verdict.accepted;
+    }
+
+    void put(String url, boolean accepted, long now) {
+        verdicts.put(fingerprint(url), new Verdict(accepted, now + ttl));
+    }
+
+    void clear() {
+        verdicts.clear();
+    }
+
+    int size() {
+        return verdicts.size();
+    }
+
+    /** 64-bit FNV-1a hash of the URL, collisions are unlikely for caches of millions of URLs */
+    static long fingerprint(String url) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < url.length(); i++) {
+            hash ^= url.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commoncrawl.stormcrawler;
+
+import java.io.ByteArrayInputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+import org.apache.stormcrawler.Metadata;
+import org.commoncrawl.stormcrawler.filter.FastURLFilter;
+
+/**
+ * Micro-benchmark comparing the compiled rule matching of {@link FastURLFilter} with the sequential
+ * evaluation of one {@link Pattern} per rule. Not run as part of the unit tests, launch it by
+ *
+ * <pre>
+ * mvn test-compile exec:exec -Dexec.classpathScope=test \
+ *   -Dexec.args="-cp %classpath org.commoncrawl.stormcrawler.FastURLFilterBenchmark"
+ * </pre>
+ *
+ * Optional arguments: number of domains, rules per domain, global rules and URLs.
+ */
+public class FastURLFilterBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numDomains = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int rulesPerDomain = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+        int globalRules = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        int numUrls = args.length > 3 ? Integer.parseInt(args[3]) : 200000;
+
+        Random random = new Random(42);
+        StringBuilder ruleFile = new StringBuilder();
+        Map<String, List<Pattern>> sequential = new HashMap<>();
+
+        List<Pattern> global = new ArrayList<>();
+        ruleFile.append("Domain .\n");
+        for (int r = 0; r < globalRules; r++) {
+            String regex = rule(r, random);
+            ruleFile.append("  DenyPath ").append(regex).append('\n');
+            global.add(Pattern.compile(regex));
+        }
+        for (int d = 0; d < numDomains; d++) {
+            String domain = "domain" + d + ".com";
+            List<Pattern> patterns = new ArrayList<>();
+            ruleFile.append("Domain ").append(domain).append('\n');
+            for (int r = 0; r < rulesPerDomain; r++) {
+                String regex = rule(r, random);
+                ruleFile.append("  DenyPath ").append(regex).append('\n');
+                patterns.add(Pattern.compile(regex));
+            }
+            sequential.put(domain, patterns);
+        }
+
+        FastURLFilter filter = new FastURLFilter();
+        filter.loadJSONResources(
+                new ByteArrayInputStream(ruleFile.toString().getBytes(StandardCharsets.UTF_8)));
+
+        String[] urls = new String[numUrls];
+        for (int i = 0; i < numUrls; i++) {
+            urls[i] =
+                    "https://www.domain"
+                            + random.nextInt(numDomains)
+                            + ".com/section"
+                            + random.nextInt(50)
+                            + "/2024/article-"
+                            + random.nextInt(1000000)
+                            + ".html";
+        }
+
+        Metadata metadata = new Metadata();
+        for (int iteration = 0; iteration < 5; iteration++) {
+            long start = System.nanoTime();
+            int accepted = 0;
+            for (String url : urls) {
+                if (filter.filter(null, metadata, url) != null) {
+                    accepted++;
+                }
+            }
+            long compiled = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int acceptedSequential = 0;
+            for (String url : urls) {
+                if (acceptSequential(url, sequential, global)) {
+                    acceptedSequential++;
+                }
+            }
+            long seq = System.nanoTime() - start;
+
+            System.out.printf(
+                    "iteration %d: compiled %.0f ns/URL (%d accepted), sequential %.0f ns/URL (%d"
+                            + " accepted)%n",
+                    iteration,
+                    compiled / (double) numUrls,
+                    accepted,
+                    seq / (double) numUrls,
+                    acceptedSequential);
+        }
+    }
+
+    /** Mix of literal rules and regular expressions as found in real-world block lists */
+    private static String rule(int r, Random random) {
+        switch (r % 4) {
+            case 0:
+                return "/tag" + random.nextInt(100000) + "/";
+            case 1:
+                return "\\.(?:jpe?g|png|gif)" + random.nextInt(1000) + "$";
+            case 2:
+                return "^/archive" + random.nextInt(100000) + "/\\d{4}/";
+            default:
+                return "/print/[0-9]+/" + random.nextInt(100000);
+        }
+    }
+
+    /** Per-rule evaluation as done before rules were compiled per host / domain */
+    private static boolean acceptSequential(
+            String url, Map<String, List<Pattern>> rules, List<Pattern> global) throws Exception {
+        URL u = new URL(url);
+        String hostname = u.getHost();
+        String path = u.getPath();
+        int start = 0;
+        int pos;
+        while ((pos = hostname.indexOf('.', start)) != -1) {
+            start = pos + 1;
+            List<Pattern> patterns = rules.get(hostname.substring(start));
+            if (patterns != null) {
+                for (Pattern p : patterns) {
+                    if (p.matcher(path).find()) {
+                        return false;
+                    }
+                }
+            }
+        }
+        for (Pattern p : global) {
+            if (p.matcher(path).find()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
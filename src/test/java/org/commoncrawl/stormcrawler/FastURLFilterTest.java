@@ -16,13 +16,23 @@ package org.commoncrawl.stormcrawler;
 
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.util.HashMap;
 import java.util.Map;
 import org.apache.stormcrawler.Metadata;
 import org.apache.stormcrawler.filtering.URLFilter;
 import org.commoncrawl.stormcrawler.filter.FastURLFilter;
+import org.commoncrawl.stormcrawler.filter.FastURLFilterCompiler;
+import org.commoncrawl.stormcrawler.filter.FastURLFilterMetric;
+import org.commoncrawl.stormcrawler.filter.HostShards;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -58,6 +68,32 @@ public class FastURLFilterTest {
         Assert.assertEquals(null, filterResult);
     }
 
+    @Test
+    public void testHostAndDomainSuffixes() throws MalformedURLException {
+        Metadata metadata = new Metadata();
+        String[] rejected = {
+            "http://www.domainnotallowed.com/",
+            "http://a.b.c.domainnotallowed.com/index.html",
+            "http://localhost/",
+            "http://www.partiallyallowed.com/verbotten",
+        };
+        for (String u : rejected) {
+            Assert.assertEquals(u, null, filter.filter(new URL(u), metadata, u));
+        }
+        String[] accepted = {
+            // not a suffix consisting of complete labels
+            "http://notdomainnotallowed.com/",
+            "http://domainnotallowed.com.example.org/",
+            // host rules only apply to the entire host name
+            "http://www.no.go.com/",
+            "http://go.com/",
+            "http://www.localhost/",
+        };
+        for (String u : accepted) {
+            Assert.assertEquals(u, filter.filter(new URL(u), metadata, u));
+        }
+    }
+
     @Test
     public void testDomainNotAllowed() throws MalformedURLException {
         URL url = new URL("http://domainnotallowed.com/forum/search.php");
@@ -82,4 +118,266 @@ public class FastURLFilterTest {
         filterResult = filter.filter(url, metadata, url.toExternalForm());
         Assert.assertEquals(url.toString(), filterResult);
     }
+
+    /** URLs are parsed the same way as by java.net.URL, except for multiple @ */
+    @Test
+    public void testParsedLikeJavaURL() throws MalformedURLException {
+        Metadata metadata = new Metadata();
+        String[] rejected = {
+            " http://no.go.com/",
+            "http://no.go.com/\n",
+            "url:http://no.go.com/",
+            " URL:http://no.go.com/ ",
+        };
+        for (String u : rejected) {
+            Assert.assertEquals(u, "no.go.com", new URL(u).getHost());
+            Assert.assertEquals(u, null, filter.filter(null, metadata, u));
+        }
+        // no host for java.net.URL, but requests are sent to the host after the last @
+        Assert.assertEquals(null, filter.filter(null, metadata, "http://a@b.com@no.go.com/"));
+        String[] accepted = {
+            " http://may.go.com/image.jpg",
+            "url:http://may.go.com/",
+            "http://no.go.com@may.go.com/",
+        };
+        for (String u : accepted) {
+            Assert.assertEquals(u, "may.go.com", new URL(u).getHost());
+            Assert.assertEquals(u, u, filter.filter(null, metadata, u));
+        }
+    }
+
+    @Test
+    public void testMultipleRules() {
+        Metadata metadata = new Metadata();
+        String[] rejected = {
+            "http://multirules.com/image.jpg",
+            "http://www.multirules.com/verbotten/page.html",
+            "http://multirules.com/archive/2020/01/article.html",
+            "http://multirules.com/news/tag/politics",
+            "http://multirules.com/page?id=1&action=exclude"
+        };
+        for (String url : rejected) {
+            Assert.assertEquals(url, null, filter.filter(null, metadata, url));
+        }
+        String[] accepted = {
+            "http://multirules.com/image.jpg.html",
+            "http://multirules.com/news/archive/2020/01/article.html",
+            "http://multirules.com/page?id=1&action=include"
+        };
+        for (String url : accepted) {
+            Assert.assertEquals(url, url, filter.filter(null, metadata, url));
+        }
+    }
+
+    @Test
+    public void testReloadReplacesRules() throws IOException {
+        FastURLFilter reloaded = createFilter("fast-urlfilter.txt");
+        String url = "http://no.go.com/";
+        Assert.assertEquals(null, reloaded.filter(null, new Metadata(), url));
+
+        String rules = "Host other.go.com\n  DenyPath .*\n";
+        reloaded.loadJSONResources(
+                new ByteArrayInputStream(rules.getBytes(StandardCharsets.UTF_8)));
+
+        // previous rules are replaced as a whole
+        Assert.assertEquals(url, reloaded.filter(null, new Metadata(), url));
+        Assert.assertEquals(null, reloaded.filter(null, new Metadata(), "http://other.go.com/"));
+    }
+
+    @Test
+    public void testSharedRules() {
+        FastURLFilter first = createFilter("fast-urlfilter.txt");
+        FastURLFilter second = createFilter("fast-urlfilter.txt");
+        String url = "http://no.go.com/";
+        Assert.assertNull(first.filter(null, new Metadata(), url));
+
+        // rules stay available as long as one filter uses them
+        first.cleanup();
+        Assert.assertNull(second.filter(null, new Metadata(), url));
+        second.cleanup();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testMetrics() {
+        ObjectNode filterParams = new ObjectNode(JsonNodeFactory.instance);
+        filterParams.put("file", "fast-urlfilter.txt");
+        Map<String, Object> conf = new HashMap<>();
+        conf.put(FastURLFilter.METRICS_PARAM, true);
+        FastURLFilter measured = new FastURLFilter();
+        measured.configure(conf, filterParams);
+
+        FastURLFilterMetric metric = new FastURLFilterMetric();
+        metric.getValueAndReset();
+
+        Metadata metadata = new Metadata();
+        measured.filter(null, metadata, "http://multirules.com/news/tag/politics");
+        measured.filter(null, metadata, "http://multirules.com/news/tag/sports");
+        measured.filter(null, metadata, "http://multirules.com/index.html");
+
+        Map<String, Long> values = (Map<String, Long>) metric.getValueAndReset();
+        Assert.assertEquals(Long.valueOf(3), values.get("domain:multirules.com.evaluations"));
+        // `DenyPath /tag/` is the 4th rule of `Domain multirules.com`
+        Assert.assertEquals(Long.valueOf(2), values.get("domain:multirules.com#3.hits"));
+        Assert.assertNull(values.get("domain:multirules.com#0.hits"));
+
+        // counters are reset
+        values = (Map<String, Long>) metric.getValueAndReset();
+        Assert.assertNull(values.get("domain:multirules.com.evaluations"));
+        measured.cleanup();
+    }
+
+    @Test
+    public void testBinaryIndex() throws Exception {
+        Path rules =
+                Paths.get(getClass().getClassLoader().getResource("fast-urlfilter.txt").toURI());
+        Path dir = Files.createTempDirectory("fast-urlfilter");
+        Path index = dir.resolve("fast-urlfilter.idx");
+        try {
+            FastURLFilterCompiler.compile(rules, index);
+            FastURLFilter mapped = createFilter(index.toString());
+
+            Metadata metadata = new Metadata();
+            String[] rejected = {
+                "http://no.go.com/",
+                "http://www.domainnotallowed.com/",
+                "http://partiallyallowed.com/verbotten",
+                "http://multirules.com/archive/2020/01/article.html",
+                "http://multirules.com/page?id=1&action=exclude"
+            };
+            for (String url : rejected) {
+                Assert.assertEquals(url, null, mapped.filter(null, metadata, url));
+                Assert.assertEquals(url, null, filter.filter(null, metadata, url));
+            }
+            String[] accepted = {
+                "http://may.go.com/image.jpg",
+                "http://partiallyallowed.com/",
+                "http://multirules.com/news/archive/2020/01/article.html"
+            };
+            for (String url : accepted) {
+                Assert.assertEquals(url, url, mapped.filter(null, metadata, url));
+            }
+        } finally {
+            Files.deleteIfExists(index);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testEscapesWithArguments() throws IOException {
+        String rules =
+                "Domain example.com\n"
+                        + "  DenyPath ab\\x41cd\n"
+                        + "  DenyPath /u\\u002Fv\n"
+                        + "  DenyPath /o\\0101p\n"
+                        + "  DenyPath /c\\cMd\n"
+                        + "  DenyPath /p\\p{L}q\n";
+        FastURLFilter escapeFilter = new FastURLFilter();
+        escapeFilter.loadJSONResources(
+                new ByteArrayInputStream(rules.getBytes(StandardCharsets.UTF_8)));
+        Metadata metadata = new Metadata();
+        String[] rejected = {
+            "http://www.example.com/abAcd",
+            "http://www.example.com/u/v",
+            "http://www.example.com/oAp",
+            "http://www.example.com/c\rd",
+            "http://www.example.com/pxq"
+        };
+        for (String url : rejected) {
+            Assert.assertNull(url, escapeFilter.filter(null, metadata, url));
+        }
+        String url = "http://www.example.com/41cd";
+        Assert.assertEquals(url, escapeFilter.filter(null, metadata, url));
+    }
+
+    @Test
+    public void testShardedRules() {
+        String[] urls = {
+            "http://no.go.com/",
+            "http://www.domainnotallowed.com/",
+            "http://partiallyallowed.com/verbotten",
+            "http://www.multirules.com/tag/",
+            "http://localhost/",
+            "http://127.0.0.1/"
+        };
+        int numShards = 2;
+        for (int shard = 0; shard < numShards; shard++) {
+            ObjectNode filterParams = new ObjectNode(JsonNodeFactory.instance);
+            filterParams.put("file", "fast-urlfilter.txt");
+            Map<String, Object> conf = new HashMap<>();
+            conf.put(HostShards.SHARDED_PARAM, true);
+            conf.put(HostShards.SHARD_INDEX_PARAM, shard);
+            conf.put(HostShards.SHARD_COUNT_PARAM, numShards);
+            FastURLFilter shardFilter = new FastURLFilter();
+            shardFilter.configure(conf, filterParams);
+            for (String url : urls) {
+                String host = url.replaceFirst("^http://([^/]+)/.*", "$1");
+                String expected = filter.filter(null, new Metadata(), url);
+                String filtered = shardFilter.filter(null, new Metadata(), url);
+                if (HostShards.getShard(host, numShards) == shard
+                        || host.equals("localhost")
+                        || host.equals("127.0.0.1")) {
+                    // rules of hosts without registered domain are held by all shards
+                    Assert.assertEquals(url, expected, filtered);
+                } else {
+                    // rules of other shards are not loaded
+                    Assert.assertEquals(url, url, filtered);
+                }
+            }
+            shardFilter.cleanup();
+        }
+    }
+
+    @Test
+    public void testDeltaFile() throws Exception {
+        Path dir = Files.createTempDirectory("fast-urlfilter");
+        Path rules = dir.resolve("rules.txt");
+        Path delta = dir.resolve("delta.txt");
+        try {
+            Files.writeString(
+                    rules,
+                    "Domain example.com\n  DenyPath /a\n  DenyPath /b\n"
+                            + "Host www.example.org\n  DenyPath .*\n");
+            Files.writeString(delta, "Domain example.com\n  -DenyPath /a\n  DenyPath /c\n");
+
+            ObjectNode filterParams = new ObjectNode(JsonNodeFactory.instance);
+            filterParams.put("file", rules.toString());
+            filterParams.put("delta", delta.toString());
+            FastURLFilter deltaFilter = new FastURLFilter();
+            deltaFilter.configure(new HashMap<>(), filterParams);
+
+            Metadata metadata = new Metadata();
+            String url = "http://www.example.com/a";
+            Assert.assertEquals(url, deltaFilter.filter(null, metadata, url));
+            url = "http://www.example.com/b";
+            Assert.assertNull(deltaFilter.filter(null, metadata, url));
+            url = "http://www.example.com/c";
+            Assert.assertNull(deltaFilter.filter(null, metadata, url));
+            url = "http://www.example.org/";
+            Assert.assertNull(deltaFilter.filter(null, metadata, url));
+
+            // changed delta is applied to the base rules, not to the previous delta
+            Files.writeString(
+                    delta, "-Host www.example.org\nDomain sub.example.com\n  DenyPath /d\n");
+            Files.setLastModifiedTime(
+                    delta, FileTime.fromMillis(System.currentTimeMillis() + 60000));
+            deltaFilter.loadJSONResources();
+
+            url = "http://www.example.com/a";
+            Assert.assertNull(deltaFilter.filter(null, metadata, url));
+            url = "http://www.example.com/c";
+            Assert.assertEquals(url, deltaFilter.filter(null, metadata, url));
+            url = "http://www.example.org/";
+            Assert.assertEquals(url, deltaFilter.filter(null, metadata, url));
+            url = "http://www.sub.example.com/d";
+            Assert.assertNull(deltaFilter.filter(null, metadata, url));
+            url = "http://www.sub.example.com/b";
+            Assert.assertNull(deltaFilter.filter(null, metadata, url));
+            deltaFilter.cleanup();
+        } finally {
+            Files.deleteIfExists(rules);
+            Files.deleteIfExists(delta);
+            Files.delete(dir);
+        }
+    }
 }
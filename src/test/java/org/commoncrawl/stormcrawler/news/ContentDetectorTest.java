@@ -0,0 +1,80 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commoncrawl.stormcrawler.news;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Test;
+
+public class ContentDetectorTest {
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testGroups() {
+        String[][] clues = {{"<rss", "version=\"2.0\""}, {"<feed"}, {"feed"}, {"<urlset"}};
+        ContentDetector detector = new ContentDetector(clues, 1024);
+
+        assertEquals(-1, detector.getFirstMatch(bytes("<rss version=\"1.0\">")));
+        assertEquals(0, detector.getFirstMatch(bytes("<rss version=\"2.0\">")));
+
+        // overlapping clues are all found
+        BitSet matches = detector.getMatches(bytes("<?xml?><feed xmlns=\"...\">"));
+        assertEquals(1, matches.nextSetBit(0));
+        assertTrue(matches.get(2));
+        assertFalse(matches.get(3));
+
+        assertFalse(detector.matches(bytes("<html><body>")));
+        assertFalse(detector.matches(new byte[0]));
+    }
+
+    @Test
+    public void testMaxOffset() {
+        ContentDetector detector = new ContentDetector(new String[][] {{"<urlset"}}, 10);
+        assertTrue(detector.matches(bytes("   <urlset>")));
+        // clue crosses the max. offset
+        assertFalse(detector.matches(bytes("     <urlset>")));
+    }
+
+    @Test
+    public void testGzipped() throws IOException {
+        ContentDetector detector = new ContentDetector(new String[][] {{"<urlset"}}, 1024);
+        StringBuilder sitemap = new StringBuilder("<?xml version=\"1.0\"?>\n<urlset>\n");
+        for (int i = 0; i < 100000; i++) {
+            sitemap.append("<url><loc>https://www.example.com/").append(i).append("</loc></url>\n");
+        }
+        sitemap.append("</urlset>\n");
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(bytes(sitemap.toString()));
+        }
+        byte[] content = compressed.toByteArray();
+        assertTrue(detector.matches(content));
+
+        // truncated content
+        assertTrue(detector.matches(Arrays.copyOf(content, 300)));
+        assertFalse(detector.matches(Arrays.copyOf(content, 10)));
+    }
+}
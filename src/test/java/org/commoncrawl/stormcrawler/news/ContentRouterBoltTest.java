@@ -0,0 +1,114 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commoncrawl.stormcrawler.news;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.storm.task.OutputCollector;
+import org.apache.stormcrawler.Metadata;
+import org.apache.stormcrawler.TestUtil;
+import org.apache.stormcrawler.bolt.FeedParserBolt;
+import org.apache.stormcrawler.bolt.SiteMapParserBolt;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ContentRouterBoltTest {
+
+    private ContentRouterBolt router;
+
+    @Before
+    public void setup() {
+        Map<String, Object> conf = new HashMap<>();
+        conf.put("sitemap.sniffContent", true);
+        conf.put("feed.sniffContent", true);
+        router = new ContentRouterBolt();
+        router.prepare(conf, TestUtil.getMockedTopologyContext(), new OutputCollector(null));
+    }
+
+    private String classify(String content, Metadata metadata) {
+        return router.classify(
+                "https://www.example.com/", content.getBytes(StandardCharsets.UTF_8), metadata);
+    }
+
+    @Test
+    public void testClassify() {
+        assertNull(classify("<!DOCTYPE html><html><body>", new Metadata()));
+        assertEquals(
+                ContentRouterBolt.SITEMAP_STREAM,
+                classify(
+                        "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">",
+                        new Metadata()));
+        assertEquals(
+                ContentRouterBolt.FEED_STREAM,
+                classify("<?xml version=\"1.0\"?><rss version=\"2.0\">", new Metadata()));
+
+        // feeds declaring the sitemap namespace are feeds
+        assertEquals(
+                ContentRouterBolt.FEED_STREAM,
+                classify(
+                        "<rss xmlns:s=\"http://www.sitemaps.org/schemas/sitemap/0.9\">",
+                        new Metadata()));
+
+        // known sitemaps are routed by metadata
+        Metadata metadata = new Metadata();
+        metadata.setValue(SiteMapParserBolt.isSitemapKey, "true");
+        assertEquals(ContentRouterBolt.SITEMAP_STREAM, classify("<html>", metadata));
+
+        metadata = new Metadata();
+        metadata.setValue("Content-Type", "application/rss+xml");
+        assertEquals(ContentRouterBolt.FEED_STREAM, classify("", metadata));
+    }
+
+    @Test
+    public void testMarkedInMetadata() {
+        Metadata metadata = new Metadata();
+        classify("<?xml version=\"1.0\"?><rss version=\"2.0\">", metadata);
+        assertEquals("true", metadata.getFirstValue(FeedParserBolt.isFeedKey));
+
+        metadata = new Metadata();
+        assertEquals(
+                ContentRouterBolt.SITEMAP_STREAM,
+                classify(
+                        "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\""
+                                + " xmlns:news=\"http://www.google.com/schemas/sitemap-news/0.9\">",
+                        metadata));
+        assertEquals("true", metadata.getFirstValue(SiteMapParserBolt.isSitemapKey));
+        assertEquals("true", metadata.getFirstValue(NewsSiteMapParserBolt.isSitemapNewsKey));
+        assertNull(metadata.getFirstValue(NewsSiteMapParserBolt.isSitemapIndexKey));
+
+        // a known news sitemap turned into a sitemap index
+        String index = "<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">";
+        assertEquals(ContentRouterBolt.SITEMAP_STREAM, classify(index, metadata));
+        assertEquals("false", metadata.getFirstValue(NewsSiteMapParserBolt.isSitemapNewsKey));
+        assertEquals("true", metadata.getFirstValue(NewsSiteMapParserBolt.isSitemapIndexKey));
+
+        // and into a plain sitemap
+        String sitemap = "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">";
+        assertEquals(ContentRouterBolt.SITEMAP_STREAM, classify(sitemap, metadata));
+        assertEquals("false", metadata.getFirstValue(NewsSiteMapParserBolt.isSitemapIndexKey));
+        assertTrue(Boolean.parseBoolean(metadata.getFirstValue(SiteMapParserBolt.isSitemapKey)));
+
+        // verified sitemaps keep their type
+        metadata = new Metadata();
+        metadata.setValue(NewsSiteMapParserBolt.isSitemapVerifiedKey, "true");
+        metadata.setValue(NewsSiteMapParserBolt.isSitemapIndexKey, "true");
+        assertEquals(ContentRouterBolt.SITEMAP_STREAM, classify(sitemap, metadata));
+        assertEquals("true", metadata.getFirstValue(NewsSiteMapParserBolt.isSitemapIndexKey));
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.commoncrawl.stormcrawler.news;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.apache.storm.topology.base.BaseRichBolt;
+import org.apache.stormcrawler.Constants;
+import org.apache.stormcrawler.Metadata;
+import org.apache.stormcrawler.bolt.FeedParserBolt;
+import org.apache.stormcrawler.parse.ParsingTester;
+
+/**
+ * Benchmark comparing the {@link NewsFeedParserBolt} with the {@link FeedParserBolt} (DOM-based
+ * parsing by ROME). Both bolts process the same feeds, as tuples passed to {@link
+ * #parse(String,byte[],Metadata)}, including the parse filters and the emitted status tuples. The
+ * throughput and the heap allocation of the executing thread are measured. Not run as part of the
+ * unit tests, launch it by
+ *
+ * <pre>
+ * mvn test-compile exec:exec -Dexec.classpathScope=test \
+ *   -Dexec.args="-cp %classpath org.commoncrawl.stormcrawler.news.FeedParserBenchmark [dir]"
+ * </pre>
+ *
+ * Optional argument: a directory of feeds (e.g., fetched from the seeds), otherwise the feeds in
+ * <code>src/test/resources/feeds/</code> are used.
+ */
+public class FeedParserBenchmark extends ParsingTester {
+
+    /** feeds in the formats of common publishing platforms */
+    private static final String[] FIXTURES = {
+        "wordpress-rss2.xml",
+        "blogger-atom.xml",
+        "media-rss2.xml",
+        "rdf-rss1.xml",
+    };
+
+    /** number of times the feeds are passed to the bolt per measurement */
+    private static final int REPEAT = 20;
+
+    public static void main(String[] args) throws Exception {
+        FeedParserBenchmark benchmark = new FeedParserBenchmark();
+        List<byte[]> feeds = new ArrayList<>();
+        if (args.length > 0) {
+            try (Stream<Path> files = Files.list(Paths.get(args[0]))) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    if (Files.isRegularFile(file)) {
+                        feeds.add(Files.readAllBytes(file));
+                    }
+                }
+            }
+        } else {
+            for (String fixture : FIXTURES) {
+                feeds.add(benchmark.readContent("feeds/" + fixture));
+            }
+            feeds.add(benchmark.readContent("feed-with-sitemap-namespace.xml"));
+        }
+        long totalBytes = 0;
+        for (byte[] feed : feeds) {
+            totalBytes += feed.length;
+        }
+        System.out.printf("%d feeds, %d bytes%n", feeds.size(), totalBytes);
+        totalBytes *= REPEAT;
+
+        for (int iteration = 0; iteration < 5; iteration++) {
+            long[] rome = benchmark.run(new FeedParserBolt(), feeds);
+            long[] streaming = benchmark.run(new NewsFeedParserBolt(), feeds);
+            System.out.printf(
+                    "iteration %d: FeedParserBolt %.1f MB/s, %.1f bytes allocated/byte"
+                            + " (%d status tuples), NewsFeedParserBolt %.1f MB/s,"
+                            + " %.1f bytes allocated/byte (%d status tuples)%n",
+                    iteration,
+                    totalBytes / (rome[0] / 1000.0),
+                    rome[1] / (double) totalBytes,
+                    rome[2],
+                    totalBytes / (streaming[0] / 1000.0),
+                    streaming[1] / (double) totalBytes,
+                    streaming[2]);
+        }
+    }
+
+    /** @return time (ns), bytes allocated and number of status tuples emitted */
+    private long[] run(BaseRichBolt parserBolt, List<byte[]> feeds) throws IOException {
+        setupParserBolt(parserBolt);
+        Map<String, Object> config = new HashMap<>();
+        prepareParserBolt("test.parsefilters.json", config);
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < REPEAT; i++) {
+            for (int j = 0; j < feeds.size(); j++) {
+                Metadata metadata = new Metadata();
+                metadata.setValue(FeedParserBolt.isFeedKey, "true");
+                parse("https://www.example.com/feed-" + j + ".xml", feeds.get(j), metadata);
+            }
+        }
+        long time = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+        return new long[] {time, allocated, output.getEmitted(Constants.StatusStreamName).size()};
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.commoncrawl.stormcrawler.news;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FeedStreamParserTest {
+
+    private static final long CUTOFF = 1500000000000L; // 2017-07-14
+
+    private static final String RSS =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                    + "<rss version=\"2.0\" xmlns:atom=\"http://www.w3.org/2005/Atom\">\n"
+                    + "<channel><title>Example News</title>\n"
+                    + "<link>https://www.example.com/</link>\n"
+                    + "<atom:link rel=\"self\" href=\"https://www.example.com/feed\"/>\n"
+                    + "<item><title>New</title><link>https://www.example.com/new.html</link>\n"
+                    + "  <description><![CDATA[<p>Breaking</p>]]></description>\n"
+                    + "  <pubDate>Wed, 01 Jan 2020 10:00:00 GMT</pubDate></item>\n"
+                    + "<item><title>Old</title><link>https://www.example.com/old.html</link>\n"
+                    + "  <pubDate>Tue, 23 Dec 2008 10:00:00 GMT</pubDate></item>\n"
+                    + "<item><title>Guid</title>\n"
+                    + "  <guid>https://www.example.com/guid.html</guid></item>\n"
+                    + "<item><title>Relative</title><link>/relative.html</link></item>\n"
+                    + "</channel></rss>";
+
+    private static final String ATOM =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                    + "<feed xmlns=\"http://www.w3.org/2005/Atom\">\n"
+                    + "<title>Example News</title>\n"
+                    + "<link rel=\"self\" href=\"https://www.example.com/atom\"/>\n"
+                    + "<entry><title type=\"xhtml\"><div>New <b>entry</b></div></title>\n"
+                    + "  <link rel=\"edit\" href=\"https://www.example.com/edit/1\"/>\n"
+                    + "  <link rel=\"alternate\" href=\"https://www.example.com/new.html\"/>\n"
+                    + "  <published>2020-01-01T10:00:00Z</published>\n"
+                    + "  <summary>Breaking</summary></entry>\n"
+                    + "<entry><title>Updated</title>\n"
+                    + "  <link href=\"https://www.example.com/updated.html\"/>\n"
+                    + "  <updated>2008-12-23T10:00:00Z</updated></entry>\n"
+                    + "</feed>";
+
+    private static class Item {
+        String link;
+        String title;
+        Date published;
+        String description;
+    }
+
+    private static List<Item> parse(String feed, FeedStreamParser.Result[] result)
+            throws IOException {
+        List<Item> items = new ArrayList<>();
+        FeedStreamParser parser = new FeedStreamParser(d -> d.getTime() >= CUTOFF);
+        result[0] =
+                parser.parse(
+                        feed.getBytes(StandardCharsets.UTF_8),
+                        (link, title, published, description) -> {
+                            Item item = new Item();
+                            item.link = link;
+                            item.title = title;
+                            item.published = published;
+                            item.description = description;
+                            items.add(item);
+                        });
+        return items;
+    }
+
+    @Test
+    public void testRSS() throws IOException {
+        FeedStreamParser.Result[] result = new FeedStreamParser.Result[1];
+        List<Item> items = parse(RSS, result);
+        Assert.assertNotNull(result[0]);
+        Assert.assertEquals(4, result[0].found);
+        Assert.assertEquals(1, result[0].skipped);
+        Assert.assertFalse(result[0].truncated);
+        Assert.assertEquals(3, items.size());
+        Item item = items.get(0);
+        Assert.assertEquals("https://www.example.com/new.html", item.link);
+        Assert.assertEquals("New", item.title);
+        Assert.assertEquals("<p>Breaking</p>", item.description);
+        Assert.assertEquals(1577872800000L, item.published.getTime());
+        Assert.assertEquals("https://www.example.com/guid.html", items.get(1).link);
+        Assert.assertNull(items.get(1).published);
+        // relative links are resolved by the bolt
+        Assert.assertEquals("/relative.html", items.get(2).link);
+    }
+
+    @Test
+    public void testPublished() throws IOException {
+        List<Date> dates = new ArrayList<>();
+        FeedStreamParser parser = new FeedStreamParser(d -> d.getTime() >= CUTOFF);
+        parser.parse(
+                RSS.getBytes(StandardCharsets.UTF_8),
+                new FeedStreamParser.Handler() {
+                    @Override
+                    public void item(
+                            String link, String title, Date published, String description) {}
+
+                    @Override
+                    public void published(Date date) {
+                        dates.add(date);
+                    }
+                });
+        // also outdated items
+        Assert.assertEquals(2, dates.size());
+        Assert.assertEquals(1577872800000L, dates.get(0).getTime());
+        Assert.assertEquals(1230026400000L, dates.get(1).getTime());
+    }
+
+    @Test
+    public void testAtom() throws IOException {
+        FeedStreamParser.Result[] result = new FeedStreamParser.Result[1];
+        List<Item> items = parse(ATOM, result);
+        Assert.assertEquals(2, result[0].found);
+        Assert.assertEquals(1, result[0].skipped);
+        Assert.assertEquals(1, items.size());
+        Item item = items.get(0);
+        Assert.assertEquals("https://www.example.com/new.html", item.link);
+        Assert.assertEquals("New entry", item.title);
+        Assert.assertEquals("Breaking", item.description);
+        Assert.assertEquals(1577872800000L, item.published.getTime());
+    }
+
+    @Test
+    public void testBrokenFeed() throws IOException {
+        FeedStreamParser.Result[] result = new FeedStreamParser.Result[1];
+        String broken = RSS.substring(0, RSS.indexOf("<item><title>Guid"));
+        List<Item> items = parse(broken + "<item><title>Broken & </title>", result);
+        Assert.assertTrue(result[0].truncated);
+        Assert.assertEquals(1, items.size());
+    }
+
+    @Test
+    public void testNotAFeed() throws IOException {
+        FeedStreamParser.Result[] result = new FeedStreamParser.Result[1];
+        parse("<html><head><title>Example</title></head></html>", result);
+        Assert.assertNull(result[0]);
+        parse("{\"json\": true}", result);
+        Assert.assertNull(result[0]);
+    }
+
+    @Test
+    public void testFeedWithSitemapNamespace() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        IOUtils.copy(
+                getClass().getClassLoader().getResourceAsStream("feed-with-sitemap-namespace.xml"),
+                baos);
+        List<String> links = new ArrayList<>();
+        FeedStreamParser.Result result =
+                new FeedStreamParser(d -> true)
+                        .parse(baos.toByteArray(), (link, title, pub, desc) -> links.add(link));
+        Assert.assertEquals(2, result.found);
+        Assert.assertEquals(
+                List.of("https://example.com/lorem/123", "https://example.com/lorem/456"), links);
+    }
+
+    /** feeds used by the {@link FeedParserBenchmark} */
+    @Test
+    public void testFixtures() throws IOException {
+        String[] fixtures = {
+            "wordpress-rss2.xml", "blogger-atom.xml", "media-rss2.xml", "rdf-rss1.xml"
+        };
+        int[] items = {10, 20, 50, 15};
+        for (int i = 0; i < fixtures.length; i++) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            IOUtils.copy(
+                    getClass().getClassLoader().getResourceAsStream("feeds/" + fixtures[i]), baos);
+            List<String> links = new ArrayList<>();
+            FeedStreamParser.Result result =
+                    new FeedStreamParser(d -> true)
+                            .parse(baos.toByteArray(), (link, title, pub, desc) -> links.add(link));
+            Assert.assertEquals(fixtures[i], items[i], result.found);
+            Assert.assertEquals(fixtures[i], items[i], links.size());
+            Assert.assertTrue(fixtures[i], links.get(0).startsWith("https://"));
+            Assert.assertFalse(fixtures[i], result.truncated);
+        }
+    }
+
+    @Test
+    public void testParseDate() {
+        long expected = 1577872800000L; // 2020-01-01T10:00:00Z
+        Assert.assertEquals(
+                expected, FeedStreamParser.parseDate("Wed, 01 Jan 2020 10:00:00 GMT").getTime());
+        Assert.assertEquals(
+                expected, FeedStreamParser.parseDate("Wed, 1 Jan 2020 05:00:00 -0500").getTime());
+        Assert.assertEquals(
+                expected, FeedStreamParser.parseDate("Wed, 01 Jan 2020 05:00:00 EST").getTime());
+        Assert.assertEquals(
+                expected, FeedStreamParser.parseDate(" 2020-01-01T10:00:00Z ").getTime());
+        Assert.assertEquals(
+                expected, FeedStreamParser.parseDate("2020-01-01T11:00:00+01:00").getTime());
+        Assert.assertNull(FeedStreamParser.parseDate("yesterday"));
+        Assert.assertNull(FeedStreamParser.parseDate(""));
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commoncrawl.stormcrawler.news;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import crawlercommons.sitemaps.UnknownFormatException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import org.apache.stormcrawler.Constants;
+import org.apache.stormcrawler.Metadata;
+import org.apache.stormcrawler.parse.Outlink;
+import org.apache.stormcrawler.parse.ParsingTester;
+import org.apache.stormcrawler.persistence.Status;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Asynchronous parsing of large sitemaps in the parser pool of the {@link NewsSiteMapParserBolt}
+ */
+public class NewsSiteMapParserBoltTest extends ParsingTester {
+
+    /** Sitemaps larger than this are parsed in the pool */
+    private static final int FAST_LANE_BYTES = 1024;
+
+    /** Parser bolt which holds back parsing in the pool until released */
+    private static class BlockingParserBolt extends NewsSiteMapParserBolt {
+
+        private final Thread executor = Thread.currentThread();
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        protected SiteMapStreamParser.Result parseSiteMap(
+                String url,
+                byte[] content,
+                String contentType,
+                Metadata parentMetadata,
+                List<Outlink> links)
+                throws UnknownFormatException, IOException {
+            if (Thread.currentThread() != executor) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            return super.parseSiteMap(url, content, contentType, parentMetadata, links);
+        }
+    }
+
+    private BlockingParserBolt parserBolt;
+
+    @Before
+    public void setupParserBolt() {
+        parserBolt = new BlockingParserBolt();
+        setupParserBolt(parserBolt);
+        Map<String, Object> config = new HashMap<>();
+        config.put("sitemap.parser.threads", 1);
+        config.put("sitemap.parser.queue.size", 1);
+        config.put("sitemap.parser.fastlane.bytes", FAST_LANE_BYTES);
+        prepareParserBolt("test.parsefilters.json", config);
+    }
+
+    @After
+    public void releaseParser() {
+        parserBolt.release.countDown();
+    }
+
+    private static byte[] newsSitemap(int numLinks) {
+        StringBuilder sitemap = new StringBuilder();
+        sitemap.append("<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"")
+                .append(" xmlns:news=\"http://www.google.com/schemas/sitemap-news/0.9\">\n");
+        String now = Instant.now().toString();
+        for (int i = 0; i < numLinks; i++) {
+            sitemap.append("<url><loc>https://example.org/article-")
+                    .append(i)
+                    .append(".html</loc><lastmod>")
+                    .append(now)
+                    .append("</lastmod></url>\n");
+        }
+        sitemap.append("</urlset>");
+        return sitemap.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void parseNewsSitemap(String url, byte[] content) throws IOException {
+        Metadata metadata = new Metadata();
+        metadata.setValue(NewsSiteMapParserBolt.isSitemapNewsKey, "true");
+        parse(url, content, metadata);
+    }
+
+    private boolean isFetched(String url) {
+        for (List<Object> values : output.getEmitted(Constants.StatusStreamName)) {
+            if (url.equals(values.get(0)) && values.get(2) == Status.FETCHED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Pass (non-sitemap) tuples to the bolt until the sitemap parsed in the pool is emitted
+     *
+     * @return number of tuples passed to the bolt
+     */
+    private int waitUntilFetched(String url) throws IOException, InterruptedException {
+        int tuples = 0;
+        while (!isFetched(url) && tuples < 500) {
+            Thread.sleep(10);
+            parse("https://example.org/page.html", new byte[0], new Metadata());
+            tuples++;
+        }
+        assertTrue("Sitemap parsed in the pool not emitted: " + url, isFetched(url));
+        return tuples;
+    }
+
+    @Test
+    public void testFastLane() throws IOException {
+        byte[] content = newsSitemap(1);
+        assertTrue(content.length <= FAST_LANE_BYTES);
+        String url = "https://example.org/sitemap-small.xml";
+        parseNewsSitemap(url, content);
+
+        // parsed in the executor thread, although the pool is idle
+        assertTrue(isFetched(url));
+        assertEquals(1, output.getAckedTuples().size());
+        assertEquals(2, output.getEmitted(Constants.StatusStreamName).size());
+    }
+
+    @Test
+    public void testParsedInPool() throws IOException, InterruptedException {
+        byte[] content = newsSitemap(50);
+        assertTrue(content.length > FAST_LANE_BYTES);
+        String url = "https://example.org/sitemap-large.xml";
+        parseNewsSitemap(url, content);
+
+        // queued, neither emitted nor acked
+        assertFalse(isFetched(url));
+        assertEquals(0, output.getAckedTuples().size());
+
+        // emitted and acked when a later tuple arrives
+        parserBolt.release.countDown();
+        int tuples = waitUntilFetched(url);
+        assertEquals(tuples + 1, output.getAckedTuples().size());
+        assertEquals(51, output.getEmitted(Constants.StatusStreamName).size());
+    }
+
+    @Test
+    public void testRejectedParsedInline() throws IOException, InterruptedException {
+        byte[] content = newsSitemap(50);
+        // parsed by the only thread in the pool
+        parseNewsSitemap("https://example.org/sitemap-1.xml", content);
+        // queued
+        parseNewsSitemap("https://example.org/sitemap-2.xml", content);
+        assertEquals(0, output.getAckedTuples().size());
+
+        // pool and queue are full: parsed in the executor thread
+        parseNewsSitemap("https://example.org/sitemap-3.xml", content);
+        assertTrue(isFetched("https://example.org/sitemap-3.xml"));
+        assertEquals(1, output.getAckedTuples().size());
+        assertFalse(isFetched("https://example.org/sitemap-1.xml"));
+        assertFalse(isFetched("https://example.org/sitemap-2.xml"));
+
+        parserBolt.release.countDown();
+        int tuples = waitUntilFetched("https://example.org/sitemap-1.xml");
+        tuples += waitUntilFetched("https://example.org/sitemap-2.xml");
+        assertEquals(tuples + 3, output.getAckedTuples().size());
+    }
+}
@@ -14,22 +14,36 @@
 package org.commoncrawl.stormcrawler.news;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import crawlercommons.sitemaps.UnknownFormatException;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Map;
 import org.apache.commons.io.IOUtils;
 import org.apache.stormcrawler.Metadata;
+import org.apache.stormcrawler.bolt.SiteMapParserBolt;
 import org.apache.stormcrawler.parse.Outlink;
 import org.apache.stormcrawler.parse.ParsingTester;
+import org.apache.stormcrawler.persistence.DefaultScheduler;
+import org.apache.stormcrawler.util.MetadataTransfer;
 import org.commoncrawl.stormcrawler.news.NewsSiteMapParserBolt.SitemapType;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +57,8 @@ public class NewsSiteMapParserTest extends ParsingTester {
         config.put("sitemap.sniffContent", true);
         // allow items published during the last week
         config.put("sitemap.filter.hours.since.modified", 168);
+        config.put("sitemap.schedule.delay", 15);
+        config.put("sitemap.index.immediate", 1);
         prepareParserBolt("test.parsefilters.json", config);
     }
 
@@ -105,4 +121,129 @@ public class NewsSiteMapParserTest extends ParsingTester {
                 SitemapType.SITEMAP,
                 type);
     }
+
+    @Test
+    public void testUnchangedSignature() throws IOException, NoSuchAlgorithmException {
+        byte[] content = readContent("sitemap-news.xml");
+        Metadata metadata = new Metadata();
+        // MD5 of the content as set by the MD5SignatureParseFilter
+        String signature =
+                HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(content));
+        metadata.setValue(NewsSiteMapParserBolt.signatureKey, signature);
+        assertFalse(
+                "Sitemap never parsed before",
+                NewsSiteMapParserBolt.isUnchanged(content, metadata));
+
+        metadata.setValue(NewsSiteMapParserBolt.numLinksKey, "2");
+        assertTrue(NewsSiteMapParserBolt.isUnchanged(content, metadata));
+        assertEquals(signature, metadata.getFirstValue(NewsSiteMapParserBolt.signatureOldKey));
+
+        content[content.length - 2] = ' ';
+        assertFalse(NewsSiteMapParserBolt.isUnchanged(content, metadata));
+    }
+
+    @Test
+    public void testSiteMapIndexOrder() throws IOException, UnknownFormatException {
+        String url = "https://example.org/sitemap-index.xml";
+        Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        StringBuilder index = new StringBuilder();
+        index.append("<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">\n");
+        int[] ageHours = {48, -1, 1, 24};
+        for (int i = 0; i < ageHours.length; i++) {
+            index.append("<sitemap><loc>https://example.org/sitemap-")
+                    .append(i)
+                    .append(".xml</loc>");
+            if (ageHours[i] >= 0) {
+                index.append("<lastmod>")
+                        .append(now.minus(ageHours[i], ChronoUnit.HOURS))
+                        .append("</lastmod>");
+            }
+            index.append("</sitemap>\n");
+        }
+        index.append("</sitemapindex>");
+        List<Outlink> links = new ArrayList<>();
+
+        boolean isIndex =
+                ((NewsSiteMapParserBolt) bolt)
+                        .parseSiteMap(
+                                url,
+                                index.toString().getBytes(StandardCharsets.UTF_8),
+                                "",
+                                new Metadata(),
+                                links)
+                        .isIndex;
+
+        assertTrue(isIndex);
+        String[] expected = {"sitemap-2", "sitemap-3", "sitemap-0", "sitemap-1"};
+        String[] expectedDelay = {null, "15", "30", "30"};
+        assertEquals(expected.length, links.size());
+        for (int i = 0; i < expected.length; i++) {
+            Outlink ol = links.get(i);
+            assertEquals("https://example.org/" + expected[i] + ".xml", ol.getTargetURL());
+            assertEquals(
+                    expectedDelay[i],
+                    ol.getMetadata().getFirstValue(DefaultScheduler.DELAY_METADATA));
+        }
+    }
+
+    @Test
+    public void testSharedOutlinkMetadata() throws IOException, UnknownFormatException {
+        String url = "https://example.org/sitemap-index.xml";
+        String index =
+                "<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">\n"
+                        + "<sitemap><loc>https://example.org/sitemap-1.xml</loc></sitemap>\n"
+                        + "<sitemap><loc>https://example.org/sitemap-2.xml</loc></sitemap>\n"
+                        + "</sitemapindex>";
+        Metadata parentMetadata = new Metadata();
+        parentMetadata.setValue(MetadataTransfer.urlPathKeyName, "https://example.org/");
+        List<Outlink> links = new ArrayList<>();
+
+        ((NewsSiteMapParserBolt) bolt)
+                .parseSiteMap(
+                        url, index.getBytes(StandardCharsets.UTF_8), "", parentMetadata, links);
+
+        assertEquals(2, links.size());
+        Metadata first = links.get(0).getMetadata();
+        Metadata second = links.get(1).getMetadata();
+        assertNotSame(first, second);
+        assertSame(
+                first.getValues(MetadataTransfer.urlPathKeyName),
+                second.getValues(MetadataTransfer.urlPathKeyName));
+        assertEquals(2, first.getValues(MetadataTransfer.urlPathKeyName).length);
+        assertEquals("true", first.getFirstValue(SiteMapParserBolt.isSitemapKey));
+
+        // modifying one outlink's metadata does not affect the other
+        first.addValue(MetadataTransfer.urlPathKeyName, url);
+        assertEquals(3, first.getValues(MetadataTransfer.urlPathKeyName).length);
+        assertEquals(2, second.getValues(MetadataTransfer.urlPathKeyName).length);
+        assertEquals(1, parentMetadata.getValues(MetadataTransfer.urlPathKeyName).length);
+    }
+
+    @Test
+    public void testPubDateWatermark() {
+        Metadata metadata = new Metadata();
+        assertNull(NewsSiteMapParserBolt.getWatermark(metadata, 24));
+
+        Instant published = Instant.parse("2020-01-02T00:00:00Z");
+        NewsSiteMapParserBolt.updateWatermark(metadata, Date.from(published));
+        assertEquals(
+                "2020-01-01T00:00:00Z",
+                NewsSiteMapParserBolt.getWatermark(metadata, 24).toInstant().toString());
+        // disabled
+        assertNull(NewsSiteMapParserBolt.getWatermark(metadata, -1));
+
+        // the watermark is not moved backwards
+        NewsSiteMapParserBolt.updateWatermark(
+                metadata, Date.from(published.minus(1, ChronoUnit.DAYS)));
+        assertEquals(
+                published.toString(),
+                metadata.getFirstValue(NewsSiteMapParserBolt.pubDateWatermarkKey));
+
+        // publication dates in the future are capped
+        Instant future = Instant.now().plus(365, ChronoUnit.DAYS);
+        NewsSiteMapParserBolt.updateWatermark(metadata, Date.from(future));
+        Instant watermark =
+                Instant.parse(metadata.getFirstValue(NewsSiteMapParserBolt.pubDateWatermarkKey));
+        assertFalse(watermark.isAfter(Instant.now()));
+    }
 }
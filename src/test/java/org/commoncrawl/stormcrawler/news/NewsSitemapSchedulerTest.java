@@ -13,11 +13,16 @@
  */
 package org.commoncrawl.stormcrawler.news;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
 import org.apache.stormcrawler.Metadata;
+import org.apache.stormcrawler.bolt.FeedParserBolt;
 import org.apache.stormcrawler.bolt.SiteMapParserBolt;
 import org.apache.stormcrawler.persistence.AdaptiveScheduler;
 import org.apache.stormcrawler.persistence.Status;
@@ -91,4 +96,95 @@ public class NewsSitemapSchedulerTest {
     public void notFetched_notTombstoned() {
         assertFalse(dead(Status.DISCOVERED, sitemap("0", daysAgo(200))));
     }
+
+    /** Expiration by Cache-Control max-age (preferred) or Expires header. */
+    @Test
+    public void cacheExpiry() {
+        Instant now = Instant.parse("2024-01-01T00:00:00Z");
+        Metadata m = new Metadata();
+        assertNull(NewsSitemapScheduler.cacheExpiry(m, "protocol.", now));
+        m.setValue("protocol.expires", "Mon, 01 Jan 2024 02:00:00 GMT");
+        assertEquals(
+                Instant.parse("2024-01-01T02:00:00Z"),
+                NewsSitemapScheduler.cacheExpiry(m, "protocol.", now));
+        m.setValue("protocol.Cache-Control", "public, max-age=600");
+        assertEquals(now.plusSeconds(600), NewsSitemapScheduler.cacheExpiry(m, "protocol.", now));
+        m.setValue("protocol.Cache-Control", "no-cache");
+        assertNull(NewsSitemapScheduler.cacheExpiry(m, "protocol.", now));
+    }
+
+    /**
+     * Changes detected by the signature are recorded in the publishing cadence only for sources
+     * without publication dates.
+     */
+    @Test
+    public void cadenceFallback() {
+        NewsSitemapScheduler scheduler = new NewsSitemapScheduler();
+        Date adaptive = new Date();
+        Instant later = Instant.now().plus(8, ChronoUnit.DAYS);
+
+        Metadata m = sitemap("1", daysAgo(0));
+        assertEquals(adaptive, scheduler.scheduleByCadence(m, daysAgo(1), adaptive));
+        assertTrue(recorded(m).isReliable(1, later));
+
+        m = sitemap("1", daysAgo(0));
+        m.setValue(NewsSitemapScheduler.CADENCE_PUBLISHED_KEY, daysAgo(1));
+        assertEquals(adaptive, scheduler.scheduleByCadence(m, daysAgo(1), adaptive));
+        assertFalse(recorded(m).isReliable(1, later));
+    }
+
+    private static PublishingCadence recorded(Metadata m) {
+        return new PublishingCadence(
+                m.getFirstValue(NewsSitemapScheduler.CADENCE_KEY),
+                m.getFirstValue(NewsSitemapScheduler.CADENCE_SINCE_KEY),
+                Instant.now());
+    }
+
+    private static Metadata feed(String numLinks, String lastLinksDate) {
+        Metadata m = new Metadata();
+        m.setValue(FeedParserBolt.isFeedKey, "true");
+        if (numLinks != null) {
+            m.setValue(NewsSiteMapParserBolt.numLinksKey, numLinks);
+        }
+        if (lastLinksDate != null) {
+            m.setValue(NewsFeedParserBolt.lastLinksDateKey, lastLinksDate);
+        }
+        return m;
+    }
+
+    private static boolean deadFeed(Status status, Metadata m) {
+        return NewsSitemapScheduler.isDeadFeed(status, m, STALE_30D, 0);
+    }
+
+    /** No recent items for long enough => tombstone, also on fetch errors. */
+    @Test
+    public void deadFeed_isTombstoned() {
+        assertTrue(deadFeed(Status.FETCHED, feed("0", daysAgo(200))));
+        assertTrue(deadFeed(Status.FETCH_ERROR, feed("0", daysAgo(200))));
+        assertTrue(deadFeed(Status.ERROR, feed("0", daysAgo(200))));
+        assertFalse(deadFeed(Status.REDIRECTION, feed("0", daysAgo(200))));
+    }
+
+    /** Feeds with recent items or recently yielding items are kept. */
+    @Test
+    public void liveFeed_notTombstoned() {
+        assertFalse(deadFeed(Status.FETCHED, feed("3", daysAgo(200))));
+        assertFalse(deadFeed(Status.FETCHED, feed("0", daysAgo(1))));
+        // yield threshold
+        assertTrue(
+                NewsSitemapScheduler.isDeadFeed(
+                        Status.FETCHED, feed("3", daysAgo(200)), STALE_30D, 5));
+        // never parsed
+        assertFalse(deadFeed(Status.FETCH_ERROR, feed(null, daysAgo(200))));
+    }
+
+    /** Feeds which never yielded recent items fall back to the signature change date. */
+    @Test
+    public void neverYieldingFeed() {
+        Metadata m = feed("0", null);
+        assertFalse(deadFeed(Status.FETCHED, m));
+        m.setValue(AdaptiveScheduler.SIGNATURE_MODIFIED_KEY, daysAgo(200));
+        assertTrue(deadFeed(Status.FETCHED, m));
+        assertFalse(dead(Status.FETCHED, m)); // not a sitemap
+    }
 }
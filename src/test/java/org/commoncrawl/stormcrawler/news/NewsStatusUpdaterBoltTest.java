@@ -0,0 +1,117 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commoncrawl.stormcrawler.news;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.apache.storm.task.GeneralTopologyContext;
+import org.apache.storm.tuple.Fields;
+import org.apache.storm.tuple.Tuple;
+import org.apache.stormcrawler.Metadata;
+import org.apache.stormcrawler.TestOutputCollector;
+import org.apache.stormcrawler.persistence.Status;
+import org.commoncrawl.stormcrawler.news.NewsStatusUpdaterBolt.Batch;
+import org.commoncrawl.stormcrawler.news.NewsStatusUpdaterBolt.BatchCollector;
+import org.commoncrawl.stormcrawler.news.NewsStatusUpdaterBolt.BatchedTuple;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Acking of the batches of links consumed by the {@link NewsStatusUpdaterBolt} */
+public class NewsStatusUpdaterBoltTest {
+
+    private GeneralTopologyContext context;
+    private TestOutputCollector output;
+    private BatchCollector collector;
+
+    @Before
+    public void setup() {
+        context = mock(GeneralTopologyContext.class);
+        when(context.getComponentOutputFields(any(), any()))
+                .thenReturn(new Fields("url", "metadata", "status"));
+        output = new TestOutputCollector();
+        collector = new BatchCollector(output);
+    }
+
+    private static Tuple batchTuple() {
+        Tuple tuple = mock(Tuple.class);
+        when(tuple.getSourceComponent()).thenReturn("sitemap");
+        when(tuple.getSourceStreamId()).thenReturn(NewsSiteMapParserBolt.STATUS_BATCH_STREAM);
+        return tuple;
+    }
+
+    private BatchedTuple[] unpack(Batch batch, int size) {
+        BatchedTuple[] links = new BatchedTuple[size];
+        for (int i = 0; i < size; i++) {
+            links[i] =
+                    new BatchedTuple(
+                            context, batch, "https://example.org/article-" + i, new Metadata());
+        }
+        return links;
+    }
+
+    @Test
+    public void testBatchedTuple() {
+        Metadata metadata = new Metadata();
+        Batch batch = new Batch(batchTuple(), 1);
+        BatchedTuple link =
+                new BatchedTuple(context, batch, "https://example.org/article", metadata);
+        assertEquals("https://example.org/article", link.getStringByField("url"));
+        assertSame(metadata, link.getValueByField("metadata"));
+        assertEquals(Status.DISCOVERED, link.getValueByField("status"));
+    }
+
+    @Test
+    public void testAckedOnceAllLinksAcked() {
+        Tuple tuple = batchTuple();
+        Batch batch = new Batch(tuple, 3);
+        BatchedTuple[] links = unpack(batch, 3);
+
+        collector.ack(links[0]);
+        collector.ack(links[2]);
+        assertEquals(0, output.getAckedTuples().size());
+
+        collector.ack(links[1]);
+        assertEquals(1, output.getAckedTuples().size());
+        assertSame(tuple, output.getAckedTuples().get(0));
+        assertEquals(0, output.getFailedTuples().size());
+    }
+
+    @Test
+    public void testFailedIfAnyLinkFailed() {
+        Tuple tuple = batchTuple();
+        Batch batch = new Batch(tuple, 3);
+        BatchedTuple[] links = unpack(batch, 3);
+
+        collector.ack(links[0]);
+        collector.fail(links[1]);
+        assertEquals(0, output.getFailedTuples().size());
+
+        collector.ack(links[2]);
+        assertEquals(0, output.getAckedTuples().size());
+        assertEquals(1, output.getFailedTuples().size());
+        assertSame(tuple, output.getFailedTuples().get(0));
+    }
+
+    @Test
+    public void testSingleTuplesPassedOn() {
+        Tuple tuple = mock(Tuple.class);
+        collector.ack(tuple);
+        assertEquals(1, output.getAckedTuples().size());
+        assertSame(tuple, output.getAckedTuples().get(0));
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commoncrawl.stormcrawler.news;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import org.apache.stormcrawler.Metadata;
+import org.junit.Test;
+
+public class PublishingCadenceTest {
+
+    /** a Monday, 0:00 UTC */
+    private static final Instant MONDAY = Instant.parse("2024-01-01T00:00:00Z");
+
+    @Test
+    public void testBucket() {
+        assertEquals(0, PublishingCadence.bucket(MONDAY));
+        assertEquals(0, PublishingCadence.bucket(MONDAY.plusSeconds(3599)));
+        assertEquals(9, PublishingCadence.bucket(MONDAY.plus(9, ChronoUnit.HOURS)));
+        assertEquals(167, PublishingCadence.bucket(MONDAY.minusSeconds(1)));
+        assertEquals(0, PublishingCadence.bucket(MONDAY.plus(7, ChronoUnit.DAYS)));
+    }
+
+    @Test
+    public void testDailyPattern() {
+        // changes every weekday at 9:xx UTC over 4 weeks
+        PublishingCadence cadence = new PublishingCadence(null, null, MONDAY);
+        Instant now = MONDAY.plus(28, ChronoUnit.DAYS);
+        for (int day = 0; day < 28; day++) {
+            if (day % 7 < 5) {
+                Instant changed = MONDAY.plus(day, ChronoUnit.DAYS).plus(9, ChronoUnit.HOURS);
+                cadence.record(changed.plus(20, ChronoUnit.MINUTES), now);
+            }
+        }
+        assertTrue(cadence.isReliable(10, now));
+        assertFalse(cadence.isReliable(100, now));
+
+        // persisted and restored
+        cadence = new PublishingCadence(cadence.encode(), cadence.getSince().toString(), now);
+        assertEquals(MONDAY, cadence.getSince());
+
+        // Monday 12:00: next change on Tuesday at 9:xx
+        Instant from = now.plus(12, ChronoUnit.HOURS);
+        Instant until = from.plus(7, ChronoUnit.DAYS);
+        assertEquals(
+                now.plus(1, ChronoUnit.DAYS).plus(10, ChronoUnit.HOURS),
+                cadence.nextChange(from, until, now));
+
+        // Friday 12:00: no change on the weekend, next change on Monday
+        from = now.plus(4, ChronoUnit.DAYS).plus(12, ChronoUnit.HOURS);
+        assertEquals(
+                now.plus(7, ChronoUnit.DAYS).plus(10, ChronoUnit.HOURS),
+                cadence.nextChange(from, from.plus(7, ChronoUnit.DAYS), now));
+        assertNull(cadence.nextChange(from, from.plus(1, ChronoUnit.DAYS), now));
+    }
+
+    @Test
+    public void testDecay() {
+        PublishingCadence cadence = new PublishingCadence(null, null, MONDAY);
+        Instant now = MONDAY.plus(20, ChronoUnit.DAYS);
+        for (int i = 0; i < 256; i++) {
+            cadence.record(MONDAY, now);
+        }
+        // halved once: 127 + 1, observation period halved
+        assertEquals(MONDAY.plus(10, ChronoUnit.DAYS), cadence.getSince());
+        assertTrue(cadence.isReliable(128, now));
+        assertFalse(cadence.isReliable(129, now));
+    }
+
+    @Test
+    public void testInvalid() {
+        PublishingCadence cadence = new PublishingCadence("not base64!", "2024", MONDAY);
+        assertEquals(MONDAY, cadence.getSince());
+        assertFalse(cadence.isReliable(0, MONDAY));
+        cadence = new PublishingCadence("AAAA", MONDAY.toString(), MONDAY);
+        assertEquals(MONDAY, cadence.getSince());
+    }
+
+    @Test
+    public void testPublicationDates() {
+        Instant now = MONDAY.plus(14, ChronoUnit.DAYS);
+        Metadata metadata = new Metadata();
+        PublishingCadence.PublicationDates dates =
+                new PublishingCadence.PublicationDates(metadata, now);
+        dates.finish();
+        // nothing recorded
+        assertNull(metadata.getFirstValue(NewsSitemapScheduler.CADENCE_KEY));
+
+        // first parse: only items published within the last week
+        dates = new PublishingCadence.PublicationDates(metadata, now);
+        dates.add(Date.from(now.minus(1, ChronoUnit.HOURS)));
+        dates.add(Date.from(now.minus(3, ChronoUnit.DAYS)));
+        dates.add(Date.from(now.minus(8, ChronoUnit.DAYS)));
+        dates.add(Date.from(now.plus(1, ChronoUnit.DAYS)));
+        dates.finish();
+        assertEquals(
+                now.minus(1, ChronoUnit.HOURS).toString(),
+                metadata.getFirstValue(NewsSitemapScheduler.CADENCE_PUBLISHED_KEY));
+        // observation starts with the oldest item recorded
+        assertEquals(
+                now.minus(3, ChronoUnit.DAYS).toString(),
+                metadata.getFirstValue(NewsSitemapScheduler.CADENCE_SINCE_KEY));
+        PublishingCadence cadence = restore(metadata, now);
+        Instant later = now.plus(7, ChronoUnit.DAYS);
+        assertTrue(cadence.isReliable(2, later));
+        assertFalse(cadence.isReliable(3, later));
+
+        // next parse: only items published after the most recent one recorded
+        Instant next = now.plus(2, ChronoUnit.HOURS);
+        dates = new PublishingCadence.PublicationDates(metadata, next);
+        dates.add(Date.from(now.minus(1, ChronoUnit.HOURS)));
+        dates.add(Date.from(now.minus(2, ChronoUnit.HOURS)));
+        dates.add(Date.from(now.plus(1, ChronoUnit.HOURS)));
+        dates.finish();
+        cadence = restore(metadata, next);
+        assertTrue(cadence.isReliable(3, later));
+        assertFalse(cadence.isReliable(4, later));
+        assertEquals(
+                now.plus(1, ChronoUnit.HOURS).toString(),
+                metadata.getFirstValue(NewsSitemapScheduler.CADENCE_PUBLISHED_KEY));
+    }
+
+    private static PublishingCadence restore(Metadata metadata, Instant now) {
+        return new PublishingCadence(
+                metadata.getFirstValue(NewsSitemapScheduler.CADENCE_KEY),
+                metadata.getFirstValue(NewsSitemapScheduler.CADENCE_SINCE_KEY),
+                now);
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.commoncrawl.stormcrawler.news;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RecentURLsTest {
+
+    @Test
+    public void testWindow() {
+        RecentURLs recent = new RecentURLs(1000, 1000, 0.001, 0);
+        Assert.assertFalse(recent.add("https://www.example.com/article.html", 0));
+        Assert.assertTrue(recent.add("https://www.example.com/article.html", 10));
+        Assert.assertFalse(recent.add("https://www.example.com/other.html", 10));
+
+        // still remembered in the previous generation
+        Assert.assertTrue(recent.add("https://www.example.com/other.html", 1500));
+        Assert.assertFalse(recent.add("https://www.example.com/new.html", 1500));
+
+        // "article" expired, "other" added again to the current generation
+        Assert.assertFalse(recent.add("https://www.example.com/article.html", 2500));
+        Assert.assertTrue(recent.add("https://www.example.com/other.html", 2500));
+
+        // no activity for more than a window
+        Assert.assertFalse(recent.add("https://www.example.com/other.html", 10000));
+    }
+
+    @Test
+    public void testFalsePositiveRate() {
+        RecentURLs recent = new RecentURLs(1000, 10000, 0.01, 0);
+        Assert.assertEquals(7, recent.getNumHashes());
+        for (int i = 0; i < 10000; i++) {
+            recent.add("https://www.example.com/article-" + i + ".html", 0);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (recent.contains("https://www.example.org/news/" + i)) {
+                falsePositives++;
+            }
+        }
+        Assert.assertTrue("false positives: " + falsePositives, falsePositives < 150);
+    }
+}
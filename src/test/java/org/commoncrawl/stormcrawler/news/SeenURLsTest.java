@@ -0,0 +1,66 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.commoncrawl.stormcrawler.news;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SeenURLsTest {
+
+    @Test
+    public void testSeen() {
+        SeenURLs first = new SeenURLs(null);
+        for (int i = 0; i < 1000; i++) {
+            String url = "https://www.example.com/article-" + i + ".html";
+            Assert.assertFalse(first.contains(url));
+            first.add(url);
+        }
+        String encoded = first.encode(2000);
+        Assert.assertTrue(encoded.length() < 5500);
+
+        // next parse: articles 0-99 removed, 1000-1009 added
+        SeenURLs second = new SeenURLs(encoded);
+        int numSeen = 0;
+        for (int i = 100; i < 1010; i++) {
+            String url = "https://www.example.com/article-" + i + ".html";
+            if (second.contains(url)) {
+                numSeen++;
+            }
+            second.add(url);
+        }
+        Assert.assertEquals(900, numSeen);
+
+        // removed links are dropped from the record
+        SeenURLs third = new SeenURLs(second.encode(2000));
+        Assert.assertFalse(third.contains("https://www.example.com/article-0.html"));
+        Assert.assertTrue(third.contains("https://www.example.com/article-1009.html"));
+
+        // links not recorded are not seen on the next parse
+        third.add("https://www.example.com/article-1009.html");
+        SeenURLs fourth = new SeenURLs(third.encode(2000));
+        Assert.assertTrue(fourth.contains("https://www.example.com/article-1009.html"));
+        Assert.assertFalse(fourth.contains("https://www.example.com/article-1008.html"));
+    }
+
+    @Test
+    public void testMaxSize() {
+        SeenURLs seen = new SeenURLs("not base64!");
+        Assert.assertFalse(seen.contains("https://www.example.com/"));
+        seen.add("https://www.example.com/");
+        seen.add("https://www.example.com/news/");
+        Assert.assertEquals("", new SeenURLs(null).encode(10));
+        Assert.assertEquals(6, seen.encode(1).length());
+    }
+}
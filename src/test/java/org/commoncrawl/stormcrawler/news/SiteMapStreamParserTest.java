@@ -0,0 +1,174 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.commoncrawl.stormcrawler.news;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SiteMapStreamParserTest {
+
+    private static final long CUTOFF = 1500000000000L; // 2017-07-14
+
+    private static final String SITEMAP =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                    + "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n"
+                    + "  xmlns:news=\"http://www.google.com/schemas/sitemap-news/0.9\"\n"
+                    + "  xmlns:xhtml=\"http://www.w3.org/1999/xhtml\">\n"
+                    + "<url><loc>https://www.example.com/new.html</loc>\n"
+                    + "  <xhtml:link rel=\"alternate\" hreflang=\"de\""
+                    + " href=\"https://www.example.com/de/new.html\"/>\n"
+                    + "  <news:news><news:publication_date>2020-01-01</news:publication_date>"
+                    + "</news:news></url>\n"
+                    + "<url><loc>https://www.example.com/old.html</loc>\n"
+                    + "  <news:news><news:publication_date>2008-12-23</news:publication_date>"
+                    + "</news:news></url>\n"
+                    + "<url><loc>https://www.example.com/old-lastmod.html</loc>"
+                    + "<lastmod>2010-01-01</lastmod></url>\n"
+                    + "<url><loc>https://www.example.com/no-date.html</loc></url>\n"
+                    + "</urlset>";
+
+    private static class Collector implements SiteMapStreamParser.Handler {
+        List<String> sitemaps = new ArrayList<>();
+        List<String> urls = new ArrayList<>();
+        List<String> alternates = new ArrayList<>();
+
+        @Override
+        public void sitemap(String target, Date lastModified) {
+            sitemaps.add(target);
+        }
+
+        @Override
+        public void url(String target, Date lastModified, List<String> alternates) {
+            urls.add(target);
+            this.alternates.addAll(alternates);
+        }
+    }
+
+    private static SiteMapStreamParser parser(long maxBytes, int maxEntries) {
+        return new SiteMapStreamParser(d -> d.getTime() >= CUTOFF, maxBytes, maxEntries);
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(content);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testDateFilter() throws IOException {
+        byte[] content = SITEMAP.getBytes(StandardCharsets.UTF_8);
+        for (byte[] c : new byte[][] {content, gzip(content)}) {
+            Collector collector = new Collector();
+            SiteMapStreamParser.Result result = parser(1000000, 1000).parse(c, collector);
+            Assert.assertNotNull(result);
+            Assert.assertFalse(result.isIndex);
+            Assert.assertFalse(result.truncated);
+            Assert.assertEquals(4, result.found);
+            Assert.assertEquals(2, result.skipped);
+            Assert.assertEquals(
+                    List.of(
+                            "https://www.example.com/new.html",
+                            "https://www.example.com/no-date.html"),
+                    collector.urls);
+            Assert.assertEquals(
+                    List.of("https://www.example.com/de/new.html"), collector.alternates);
+        }
+    }
+
+    @Test
+    public void testCaps() throws IOException {
+        byte[] content = SITEMAP.getBytes(StandardCharsets.UTF_8);
+
+        Collector collector = new Collector();
+        SiteMapStreamParser.Result result = parser(1000000, 1).parse(content, collector);
+        Assert.assertTrue(result.truncated);
+        Assert.assertEquals(1, result.found);
+        Assert.assertEquals(1, collector.urls.size());
+
+        // stop in the middle of the second entry
+        collector = new Collector();
+        int maxBytes = SITEMAP.indexOf("old.html");
+        result = parser(maxBytes, 1000).parse(gzip(content), collector);
+        Assert.assertTrue(result.truncated);
+        Assert.assertEquals(List.of("https://www.example.com/new.html"), collector.urls);
+    }
+
+    @Test
+    public void testIndex() throws IOException {
+        String index =
+                "<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">\n"
+                        + "<sitemap><loc>https://www.example.com/sitemap-1.xml</loc>"
+                        + "<lastmod>2020-01-01T00:00:00Z</lastmod></sitemap>\n"
+                        + "<sitemap><loc>https://www.example.com/sitemap-2.xml</loc>"
+                        + "<lastmod>2010-01-01T00:00:00Z</lastmod></sitemap>\n"
+                        + "</sitemapindex>";
+        Collector collector = new Collector();
+        SiteMapStreamParser.Result result =
+                parser(1000000, 1000).parse(index.getBytes(StandardCharsets.UTF_8), collector);
+        Assert.assertTrue(result.isIndex);
+        Assert.assertEquals(2, result.found);
+        Assert.assertEquals(List.of("https://www.example.com/sitemap-1.xml"), collector.sitemaps);
+    }
+
+    @Test
+    public void testWatermark() throws IOException {
+        // 20 entries, newest first, one day apart
+        StringBuilder sb = new StringBuilder();
+        sb.append("<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"");
+        sb.append(" xmlns:news=\"http://www.google.com/schemas/sitemap-news/0.9\">\n");
+        for (int i = 0; i < 20; i++) {
+            sb.append("<url><loc>https://www.example.com/").append(i).append(".html</loc>");
+            sb.append("<news:news><news:publication_date>2020-01-");
+            sb.append(String.format("%02d", 20 - i));
+            sb.append("</news:publication_date></news:news></url>\n");
+        }
+        sb.append("</urlset>");
+        byte[] content = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+        Collector collector = new Collector();
+        SiteMapStreamParser.Result result = parser(1000000, 1000).parse(content, collector);
+        Assert.assertFalse(result.stopped);
+        Assert.assertEquals(20, collector.urls.size());
+        Assert.assertEquals(Instant.parse("2020-01-20T00:00:00Z"), result.newest.toInstant());
+
+        // watermark at 2020-01-15: 5 more entries, then stop after 5 entries before the watermark
+        Date watermark = Date.from(Instant.parse("2020-01-15T00:00:00Z"));
+        collector = new Collector();
+        result = parser(1000000, 1000).parse(content, collector, watermark);
+        Assert.assertTrue(result.stopped);
+        Assert.assertFalse(result.truncated);
+        Assert.assertEquals(6 + SiteMapStreamParser.STOP_AFTER, result.found);
+        Assert.assertEquals(result.found, collector.urls.size());
+    }
+
+    @Test
+    public void testNotASitemap() throws IOException {
+        Collector collector = new Collector();
+        byte[] text = "https://www.example.com/\n".getBytes(StandardCharsets.UTF_8);
+        Assert.assertNull(parser(1000000, 1000).parse(text, collector));
+        byte[] rss = "<rss version=\"2.0\"><channel/></rss>".getBytes(StandardCharsets.UTF_8);
+        Assert.assertNull(parser(1000000, 1000).parse(rss, collector));
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.commoncrawl.stormcrawler.news;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class URLVerdictCacheTest {
+
+    @Test
+    public void testExpiry() {
+        URLVerdictCache cache = new URLVerdictCache(10, 1000);
+        cache.put("https://www.example.com/", true, 0);
+        cache.put("https://www.example.com/tag/", false, 0);
+        Assert.assertEquals(Boolean.TRUE, cache.get("https://www.example.com/", 999));
+        Assert.assertEquals(Boolean.FALSE, cache.get("https://www.example.com/tag/", 999));
+        Assert.assertNull(cache.get("https://www.example.org/", 999));
+        Assert.assertNull(cache.get("https://www.example.com/", 1000));
+        Assert.assertEquals(1, cache.size());
+        cache.clear();
+        Assert.assertNull(cache.get("https://www.example.com/tag/", 999));
+    }
+
+    @Test
+    public void testBounded() {
+        URLVerdictCache cache = new URLVerdictCache(2, 1000);
+        cache.put("https://www.example.com/1", true, 0);
+        cache.put("https://www.example.com/2", true, 0);
+        // access makes 1 the most recently used entry
+        Assert.assertEquals(Boolean.TRUE, cache.get("https://www.example.com/1", 0));
+        cache.put("https://www.example.com/3", true, 0);
+        Assert.assertEquals(2, cache.size());
+        Assert.assertNull(cache.get("https://www.example.com/2", 0));
+        Assert.assertEquals(Boolean.TRUE, cache.get("https://www.example.com/1", 0));
+    }
+}